@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample work of live mode. The boxed CircularBuffer path is what
+ * cpm() did before RateMeter: add a sample, copy the window out, sum it.
+ * RateMeter keeps running sums instead. Run with "-prof gc".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class CounterBench {
+
+    @Param({"5", "60"})
+    int window;
+
+    CircularBuffer<Long> counts;
+    CircularBuffer<Long> durations;
+    RateMeter meter;
+    long sample;
+
+    @Setup
+    public void setup() {
+        counts = new CircularBuffer<Long>(window);
+        durations = new CircularBuffer<Long>(window);
+        meter = new RateMeter(window);
+        for (int i = 0; i < window; i++) {
+            counts.add((long) i);
+            durations.add(1000L);
+            meter.add(i, 1000);
+        }
+    }
+
+    @Benchmark
+    public void circularAdd() {
+        counts.add(sample++ & 0xFF);
+    }
+
+    @Benchmark
+    public Collection<Long> circularGetAll() {
+        return counts.getAll();
+    }
+
+    @Benchmark
+    public long circularCpm() {
+        long c = sample++ & 0xFF;
+        counts.add(c);
+        durations.add(1000L);
+
+        long sumCounts = 0;
+        for (long v : counts.getAll()) {
+            sumCounts += v;
+        }
+        long sumDuration = 0;
+        for (long v : durations.getAll()) {
+            sumDuration += v;
+        }
+        return sumCounts * 60 * 1000 / sumDuration;
+    }
+
+    @Benchmark
+    public long meterCpm() {
+        meter.add(sample++ & 0xFF, 1000);
+        return meter.rate(0, 60 * 1000);
+    }
+
+    @Benchmark
+    public void meterAllWindows(Blackhole bh) {
+        meter.add(sample++ & 0xFF, 1000);
+        for (int w = 0; w < meter.windows(); w++) {
+            bh.consume(meter.rate(w, 60 * 1000));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a dose record and a live sample into a line, per output format,
+ * against the String.format rendering of the live line. Run with "-prof gc":
+ * the formatters should not allocate at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class FormatBench {
+
+    @Param({"txt", "csv", "jsonl"})
+    String format;
+
+    LineFormatter formatter;
+    BaseReader.Record record;
+    LiveSample sample;
+
+    @Setup
+    public void setup() {
+        byte[] raw = {13, 2, 8, 23, 12, 57, 100, 0, 0, 0, 60, 0, 0, 0, 0, 'D'};
+        ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        record = new BaseReader.RecordViews().wrap(buf, 0);
+
+        int[] windows = {5, 15, 60};
+        formatter = LineFormatter.forFile(new File("bench." + format), windows);
+        formatter.setSerial(3634);
+
+        sample = new LiveSample(windows.length);
+        sample.time = System.currentTimeMillis();
+        sample.duration = 1000;
+        sample.gamma1 = 31;
+        sample.gamma2 = 20;
+        sample.gamma3 = 6;
+        sample.cpm[0] = 3500;
+        sample.cpm[1] = 3510;
+        sample.cpm[2] = 3490;
+    }
+
+    @Benchmark
+    public int record() {
+        return formatter.record(record).length();
+    }
+
+    @Benchmark
+    public int sample() {
+        sample.time += 1000;
+        return formatter.sample(sample).length();
+    }
+
+    @Benchmark
+    public String legacySample() {
+        LiveSample s = sample;
+        s.time += 1000;
+        return String.format("  %s, %4d counts, %4d cps, %6d cpm, %6d cpm (5s), %6d cpm (15s), %6d cpm (60s)%s%s\n",
+                new Date(s.time).toString(),
+                s.counts(), s.cps(), s.cpmNow(),
+                s.cpm[0],
+                s.cpm[1],
+                s.cpm[2],
+                s.gammaAlarm ? ", GAMMA ALARM" : "",
+                s.neutronAlarm ? ", NEUTRON ALARM" : ""
+        );
+    }
+
+}
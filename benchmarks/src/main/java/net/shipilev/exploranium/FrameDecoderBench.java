@@ -0,0 +1,192 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares byte-at-a-time readLine() that BaseReader used before with
+ * FrameDecoder. Run with "-prof gc" to get gc.alloc.rate.norm, which is
+ * bytes allocated per frame here. Legacy path makes one InputStream.read()
+ * call per byte through BufferedInputStream, decoder makes one next() call
+ * per frame; "portCalls" and "frames" counters give the number of calls
+ * that reached the underlying port stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class FrameDecoderBench {
+
+    static final int FRAMES = 1024;
+
+    /**
+     * How many bytes the port hands out on bulk read.
+     * USB-serial adapters usually deliver 16..64 bytes at once.
+     */
+    @Param({"16", "64", "4096"})
+    int chunk;
+
+    CyclicStream legacyStream;
+    CyclicStream decoderStream;
+    CyclicStream directStream;
+    InputStream legacy;
+    FrameDecoder decoder;
+    FrameDecoder direct;
+
+    @Setup
+    public void setup() {
+        byte[] log = new byte[16 * FRAMES];
+        for (int i = 0; i < log.length; i++) {
+            log[i] = (byte) i;
+        }
+        legacyStream = new CyclicStream(log, chunk);
+        decoderStream = new CyclicStream(log, chunk);
+        directStream = new CyclicStream(log, chunk);
+        legacy = new BufferedInputStream(legacyStream);
+        decoder = new FrameDecoder(decoderStream);
+        direct = new FrameDecoder(directStream, FrameDecoder.DEFAULT_CAPACITY, true);
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Calls {
+        public long portCalls;
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            portCalls = 0;
+            frames = 0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void legacyReadLine(Calls calls, Blackhole bh) throws IOException {
+        long before = legacyStream.calls;
+        for (int f = 0; f < FRAMES; f++) {
+            bh.consume(readLine(legacy, 16));
+        }
+        calls.portCalls += legacyStream.calls - before;
+        calls.frames += FRAMES;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decoderHeap(Calls calls, Blackhole bh) throws IOException {
+        long before = decoderStream.calls;
+        for (int f = 0; f < FRAMES; f++) {
+            bh.consume(decoder.next(16).getInt(0));
+        }
+        calls.portCalls += decoderStream.calls - before;
+        calls.frames += FRAMES;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decoderDirect(Calls calls, Blackhole bh) throws IOException {
+        long before = directStream.calls;
+        for (int f = 0; f < FRAMES; f++) {
+            bh.consume(direct.next(16).getInt(0));
+        }
+        calls.portCalls += directStream.calls - before;
+        calls.frames += FRAMES;
+    }
+
+    /**
+     * The code BaseReader used before FrameDecoder.
+     */
+    static byte[] readLine(InputStream in, int count) throws IOException {
+        byte[] buf = new byte[count];
+        for (int i = 0; i < count; i++) {
+            int read = in.read();
+            if (read == -1) {
+                throw new IOException("Unable to read byte " + (i+1) + " of " + count);
+            }
+            buf[i] = (byte) read;
+        }
+        return buf;
+    }
+
+    /**
+     * Endless stream over the same data, counting calls made to it.
+     */
+    static class CyclicStream extends InputStream {
+        private final byte[] data;
+        private final int chunk;
+        private int pos;
+        long calls;
+
+        CyclicStream(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            calls++;
+            int r = data[pos++] & 0xFF;
+            if (pos == data.length) {
+                pos = 0;
+            }
+            return r;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            calls++;
+            int n = Math.min(Math.min(len, chunk), data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos += n;
+            if (pos == data.length) {
+                pos = 0;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return Math.min(chunk, data.length - pos);
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record decoding, per opcode: allocating parse(), flyweight views, and
+ * the toString() used by every log dump. Run with "-prof gc" to see how
+ * many bytes each path allocates per record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class RecordBench {
+
+    /**
+     * Prologue, power reset, soft reset, time set, watchdog, battery, alarm, dose, unknown.
+     */
+    @Param({"48", "80", "83", "84", "87", "66", "65", "68", "0"})
+    int opcode;
+
+    byte[] raw;
+    ByteBuffer buf;
+    BaseReader.RecordViews views;
+    BaseReader.Record view;
+
+    @Setup
+    public void setup() {
+        raw = new byte[16];
+        raw[0] = 0x50;
+        raw[2] = 0x10;
+        // 2013/02/08 23:12:57
+        raw[4] = 13;
+        raw[5] = 2;
+        raw[6] = 8;
+        raw[7] = 23;
+        raw[8] = 12;
+        raw[9] = 57;
+        raw[10] = 0x32;
+        raw[11] = 0x0E;
+        raw[12] = '1';
+        raw[13] = '8';
+        raw[14] = '0';
+        raw[15] = (byte) opcode;
+
+        buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        views = new BaseReader.RecordViews();
+        view = views.wrap(buf, 0);
+    }
+
+    @Benchmark
+    public BaseReader.Record parse() {
+        return BaseReader.parse(raw);
+    }
+
+    @Benchmark
+    public BaseReader.Record create() {
+        return BaseReader.create((byte) opcode);
+    }
+
+    @Benchmark
+    public BaseReader.Record view() {
+        return views.wrap(buf, 0);
+    }
+
+    @Benchmark
+    public String parseToString() {
+        return BaseReader.parse(raw).toString();
+    }
+
+    @Benchmark
+    public String viewToString() {
+        return view.toString();
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done by gatherSpectrum() after every sweep: index update, window
+ * query over stored sweeps, peak analysis, and rendering the histogram
+ * to a writer that discards output. Run with "-prof gc".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class SpectrumBench {
+
+    static final int CHANNELS = 41;
+
+    /** Sweeps already acquired: ~1 hour, ~1 day, ~1 month at 5 secs per channel. */
+    @Param({"16", "420", "12600"})
+    int sweeps;
+
+    int[] sweep;
+    long[] acc;
+    SpectrumIndex index;
+    SpectrumAnalyzer analyzer;
+    PrintWriter pw;
+    long now;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        sweep = new int[CHANNELS];
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            sweep[ch] = (int) (400 * Math.exp(-ch / 6.0)) + r.nextInt(10);
+        }
+        acc = new long[CHANNELS];
+
+        index = new SpectrumIndex(CHANNELS);
+        analyzer = new SpectrumAnalyzer(CHANNELS, 10, 30, 0, Double.NaN);
+        for (int i = 0; i < sweeps; i++) {
+            now += 205000;
+            index.add(now - 205000, now, sweep);
+            analyzer.add(sweep);
+        }
+
+        pw = new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    @Benchmark
+    public long accumulateNaive() {
+        // what re-summing all sweeps costs without the prefix index
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            acc[ch] = 0;
+        }
+        for (int i = 0; i < sweeps; i++) {
+            for (int ch = 0; ch < CHANNELS; ch++) {
+                acc[ch] += sweep[ch];
+            }
+        }
+        return acc[0];
+    }
+
+    @Benchmark
+    public int windowHour() {
+        return index.last(TimeUnit.HOURS.toMillis(1), now, acc);
+    }
+
+    @Benchmark
+    public int analyze() {
+        analyzer.add(sweep);
+        return analyzer.peakCount();
+    }
+
+    @Benchmark
+    public long[] render() {
+        index.sum(0, index.count(), acc);
+        BaseReader.printSpectrum(pw, acc);
+        return acc;
+    }
+
+}
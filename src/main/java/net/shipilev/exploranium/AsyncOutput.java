@@ -0,0 +1,269 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writer that hands text over to a background thread.
+ *
+ * Callers only copy chars into the current batch, and {@link #flush()}
+ * merely asks for the batch to be written; the output thread swaps batches
+ * and writes them to all sinks, flushing them at most once per interval.
+ * This way, console or disk stalls never show up in device exchanges.
+ * If the sinks fall too far behind, writers wait for them; in lossy mode,
+ * meant for live streaming, text is dropped and reported instead. Whatever
+ * was accepted is written out on JVM exit, since live sessions usually end
+ * with Ctrl-C.
+ */
+public class AsyncOutput extends Writer implements Runnable {
+
+    private static final int BATCH = 8 * 1024;
+    private static final int MAX_PENDING = 4 * 1024 * 1024;
+    private static final long SHUTDOWN_WAIT = TimeUnit.SECONDS.toMillis(2);
+
+    private OutputSink[] sinks;
+    private final long flushIntervalNanos;
+    private final Thread thread;
+    private final Thread hook;
+
+    private char[] batch = new char[BATCH];
+    private int size;
+    private boolean flushRequested;
+    private boolean closed;
+    private long dropped;
+    private boolean lossy;
+
+    private char[] spare = new char[BATCH];
+
+    // Separate lock: PrintWriter holds our monitor while calling close().
+    public AsyncOutput(long flushIntervalMillis, OutputSink... sinks) {
+        super(new Object());
+        this.sinks = sinks;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.thread = new Thread(this, "output-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+
+        this.hook = new Thread("output-drain") {
+            @Override
+            public void run() {
+                shutdown(SHUTDOWN_WAIT);
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    /**
+     * Drop text instead of waiting when the sinks fall behind.
+     */
+    public void setLossy(boolean lossy) {
+        synchronized (lock) {
+            this.lossy = lossy;
+        }
+    }
+
+    /**
+     * Attaches another sink, it receives the text from the next batch on.
+     */
+    public void addSink(OutputSink sink) {
+        synchronized (lock) {
+            OutputSink[] ns = new OutputSink[sinks.length + 1];
+            System.arraycopy(sinks, 0, ns, 0, sinks.length);
+            ns[sinks.length] = sink;
+            sinks = ns;
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        synchronized (lock) {
+            if (reserve(len)) {
+                System.arraycopy(cbuf, off, batch, size, len);
+                commit(len);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        synchronized (lock) {
+            if (reserve(len)) {
+                str.getChars(off, off + len, batch, size);
+                commit(len);
+            }
+        }
+    }
+
+    private boolean reserve(int len) {
+        if (closed) {
+            return false;
+        }
+        while (size > 0 && size + len > MAX_PENDING) {
+            if (lossy) {
+                dropped += len;
+                return false;
+            }
+            lock.notifyAll();
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped += len;
+                return false;
+            }
+            if (closed) {
+                return false;
+            }
+        }
+        if (size + len > batch.length) {
+            char[] nb = new char[Math.max(batch.length * 2, size + len)];
+            System.arraycopy(batch, 0, nb, 0, size);
+            batch = nb;
+        }
+        return true;
+    }
+
+    private void commit(int len) {
+        size += len;
+        if (size >= BATCH) {
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void flush() {
+        synchronized (lock) {
+            if (!flushRequested) {
+                flushRequested = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastFlush = System.nanoTime() - flushIntervalNanos;
+        while (true) {
+            char[] out;
+            int len;
+            boolean doFlush;
+            boolean last;
+            long drops;
+            OutputSink[] targets;
+            synchronized (lock) {
+                targets = sinks;
+                while (true) {
+                    if (closed) {
+                        break;
+                    }
+                    long wait = lastFlush + flushIntervalNanos - System.nanoTime();
+                    if (size >= BATCH || (flushRequested && wait <= 0)) {
+                        break;
+                    }
+                    try {
+                        if (flushRequested) {
+                            TimeUnit.NANOSECONDS.timedWait(lock, wait);
+                        } else {
+                            lock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+
+                out = batch;
+                len = size;
+                batch = spare;
+                size = 0;
+                spare = out;
+                doFlush = flushRequested || closed;
+                flushRequested = false;
+                last = closed;
+                drops = dropped;
+                dropped = 0;
+                // room for writers waiting in reserve()
+                lock.notifyAll();
+            }
+
+            for (OutputSink s : targets) {
+                try {
+                    if (len > 0) {
+                        s.write(out, 0, len);
+                    }
+                    if (drops > 0) {
+                        char[] w = ("Warning: output is too slow, " + drops + " chars dropped\n").toCharArray();
+                        s.write(w, 0, w.length);
+                    }
+                    if (doFlush) {
+                        s.flush();
+                    }
+                } catch (IOException e) {
+                    // nowhere to report, keep serving other sinks
+                }
+            }
+            if (doFlush) {
+                lastFlush = System.nanoTime();
+            }
+
+            if (last) {
+                for (OutputSink s : targets) {
+                    try {
+                        s.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes out everything accepted so far, and closes the sinks.
+     */
+    @Override
+    public void close() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // already shutting down, the hook closes anyway
+        }
+        shutdown(0);
+    }
+
+    private void shutdown(long waitMillis) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            thread.join(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
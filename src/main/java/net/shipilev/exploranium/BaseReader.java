@@ -19,24 +19,17 @@
  */
 package net.shipilev.exploranium;
 
-import gnu.io.CommPortIdentifier;
 import gnu.io.NoSuchPortException;
 import gnu.io.PortInUseException;
-import gnu.io.RXTXPort;
-import gnu.io.SerialPort;
 import gnu.io.UnsupportedCommOperationException;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -49,223 +42,541 @@ public class BaseReader {
         }
     }
 
-    private final InputStream commIn;
+    private static final int PROGRESS_INTERVAL = 250;
+    static final int[] LIVE_WINDOWS = {5, 15, 60};
+    private static final int MAX_INTERLEAVED = 2;
+    private static final double ANALYSIS_HALF_LIFE = 10;
+
+    private static final int RECEIVE_TIMEOUT = 1000;
+    private static final int HANDSHAKE_TIMEOUT = 500;
+
+    /** The line is idle once nothing arrived for this long. */
+    private static final long QUIET_PERIOD = TimeUnit.MILLISECONDS.toNanos(30);
+
+    /** Gives up on a line that keeps talking. */
+    private static final long DRAIN_LIMIT = TimeUnit.MILLISECONDS.toNanos(1000);
+    private static final long DRAIN_POLL = 5;
+
+    /** Attempts after the first one for commands that are safe to repeat. */
+    private static final int MAX_RETRIES = 3;
+
+    private final FrameDecoder commIn;
     private final OutputStream commOut;
-    private final RXTXPort serial;
+    private final Transport transport;
     private final Options opts;
     private final PrintWriter pw;
     private final String port;
-    private final List<Record> records = new ArrayList<Record>();
+    private final RecordBuffer records = new RecordBuffer();
+    private final RecordArchive archive;
+    private final LinkMetrics metrics;
+    private final CommandScheduler scheduler;
+    private final SampleClock clock = new SampleClock();
     private boolean read;
 
     public BaseReader(Options opts, PrintWriter pw) {
+        this(opts, pw, Transports.open(opts.getPort()));
+    }
+
+    public BaseReader(Options opts, PrintWriter pw, Transport transport) {
         this.opts = opts;
         this.pw = pw;
         try {
-            port = opts.getPort();
-            System.setProperty("gnu.io.rxtx.SerialPorts", port);
-            CommPortIdentifier ident = CommPortIdentifier.getPortIdentifier(port);
+            if (opts.getCaptureFile() != null) {
+                transport = new CaptureTransport(transport, opts.getCaptureFile());
+            }
+            this.transport = transport;
+            port = transport.getName();
+            metrics = new LinkMetrics(port);
+            scheduler = new CommandScheduler(metrics.queueDelay);
+            commIn = new FrameDecoder(metrics.wrap(transport.getInputStream()));
+            commOut = new BufferedOutputStream(metrics.wrap(transport.getOutputStream()));
+            archive = (opts.getArchiveDir() != null) ? new RecordArchive(opts.getArchiveDir()) : null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
 
-            serial = ident.open("NRSerialPort", 2000);
-            serial.enableReceiveThreshold(1);
-            serial.enableReceiveTimeout(1000);
-            serial.setSerialPortParams(2400, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+        metrics.register();
+        connect();
+    }
 
-            commIn = new BufferedInputStream(serial.getInputStream());
-            commOut = new BufferedOutputStream(serial.getOutputStream());
+    public PrintWriter getWriter() {
+        return pw;
+    }
 
-            tryReadOutStale();
-        } catch (NoSuchPortException e) {
-            throw new RuntimeException(e);
-        } catch (PortInUseException e) {
-            throw new RuntimeException(e);
-        } catch (UnsupportedCommOperationException e) {
-            throw new RuntimeException(e);
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Time base for live samples.
+     */
+    public SampleClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Requests queued here are interleaved with live counter reads.
+     */
+    public CommandScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Serves up to {@code max} due scheduled requests, while the link is idle.
+     */
+    private void runScheduled(int max) throws IOException {
+        for (int i = 0; i < max; i++) {
+            CommandScheduler.Request r = scheduler.poll(System.nanoTime());
+            if (r == null) {
+                return;
+            }
+
+            long sent = send(r.getCommand());
+            long queued = sent - r.getDue();
+            if (!readAck(sent)) {
+                r.getHandler().onFailure("no acknowledge", queued);
+                commIn.discard();
+                continue;
+            }
+
+            FrameDecoder.Frame f;
+            try {
+                f = commIn.next(r.getResponseLength());
+            } catch (IOException e) {
+                r.getHandler().onFailure(e.getMessage(), queued);
+                commIn.discard();
+                continue;
+            }
+            metrics.request.record(System.nanoTime() - sent);
+            metrics.frame();
+            r.getHandler().onResponse(f, queued);
         }
     }
 
-    private void tryReadOutStale() {
-        try {
-            while (true) {
-                byte[] bytes = readLine(commIn, 16);
-                pw.println("Warning: stale data read: " + Arrays.toString(bytes));
+    private long send(byte command) throws IOException {
+        commOut.write(command);
+        commOut.flush();
+        return System.nanoTime();
+    }
+
+    /**
+     * Reads 0xAA acknowledge for the command sent at given time.
+     */
+    private boolean readAck(long sent) throws IOException {
+        int h = commIn.readByte();
+        if (h == 0xAA) {
+            metrics.ack.record(System.nanoTime() - sent);
+            return true;
+        }
+        if (h != -1) {
+            metrics.headerMismatch();
+        }
+        return false;
+    }
+
+    /**
+     * Sends a command that is safe to repeat, and reads its acknowledge.
+     * If there is none, finds the place in the stream again and retries.
+     * @return time the acknowledged command was sent, or -1 if all attempts failed
+     */
+    private long command(byte command) throws IOException {
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            if (attempt > 0) {
+                resync("no acknowledge for '" + (char) command + "'");
+            }
+            long sent = send(command);
+            if (readAck(sent)) {
+                return sent;
             }
-        } catch (IOException e) {
-            // expected
         }
+        return -1;
     }
 
-    public void dumpDiagnostic() throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
-        if (!read) {
-            read = true;
-            readAll();
+    /**
+     * Drops whatever is on the line, so the next command starts afresh.
+     */
+    private void resync(String reason) {
+        int buffered = commIn.discard();
+        metrics.resync(1, buffered);
+        pw.println("Warning: " + reason + ", resynchronizing");
+        drainStale();
+    }
+
+    /**
+     * Drains whatever the device had been sending before, then checks it is
+     * there with a battery request, which is answered right away.
+     */
+    private void connect() {
+        long start = System.nanoTime();
+        drainStale();
+
+        float battery = -1;
+        transport.setReceiveTimeout(HANDSHAKE_TIMEOUT);
+        try {
+            long sent = send((byte) 'Y');
+            if (readAck(sent)) {
+                battery = commIn.next(2).getUnsignedShort(0) / 100f;
+                metrics.request.record(System.nanoTime() - sent);
+                metrics.frame();
+            }
+        } catch (IOException e) {
+            // reported below
+        } finally {
+            transport.setReceiveTimeout(RECEIVE_TIMEOUT);
         }
 
-        pw.println("Diagnostic log:");
+        if (battery < 0) {
+            drainStale();
+            pw.printf("Warning: no answer from %s within %d ms\n", port, HANDSHAKE_TIMEOUT);
+        } else {
+            pw.printf("Connected to %s in %d ms, battery %.2fV\n", port,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), battery);
+        }
+    }
 
-        for (Record r : records) {
-            if (!(r instanceof AlarmRecord) && !(r instanceof DoseRecord)) {
-                pw.print("  ");
-                pw.println(r);
+    /**
+     * Reads out stale bytes until the line is quiet, without waiting for
+     * receive timeouts.
+     */
+    private void drainStale() {
+        long now = System.nanoTime();
+        long deadline = now + DRAIN_LIMIT;
+        long quietSince = now;
+        int stale = 0;
+        try {
+            while (now - deadline < 0) {
+                int n = commIn.skipAvailable();
+                now = System.nanoTime();
+                if (n > 0) {
+                    stale += n;
+                    quietSince = now;
+                } else if (now - quietSince >= QUIET_PERIOD) {
+                    break;
+                } else {
+                    TimeUnit.MILLISECONDS.sleep(DRAIN_POLL);
+                    now = System.nanoTime();
+                }
             }
+        } catch (IOException e) {
+            // nothing else to drain
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (stale > 0) {
+            metrics.staleBytes(stale);
+            pw.println("Warning: stale data read: " + stale + " bytes");
         }
-        pw.println();
+    }
+
+    public void dumpDiagnostic() throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
+        printDiagnostic(pw, getRecords());
+    }
+
+    public static void printDiagnostic(PrintWriter pw, RecordBuffer records) {
+        pw.println("Diagnostic log:");
+        printRecords(pw, records, RecordFilter.DIAGNOSTIC);
     }
 
     public void dumpAlarms() throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
-        if (!read) {
-            read = true;
-            readAll();
-        }
+        printAlarms(pw, getRecords());
+    }
 
+    public static void printAlarms(PrintWriter pw, RecordBuffer records) {
         pw.println("Alarm log:");
+        printRecords(pw, records, RecordFilter.ALARM);
+    }
 
-        for (Record r : records) {
-            if (r instanceof PrologueRecord || r instanceof AlarmRecord) {
-                pw.print("  ");
-                pw.println(r);
+    public void dumpDose() throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
+        printDose(pw, getRecords());
+    }
+
+    private static void printRecords(PrintWriter pw, RecordBuffer records, RecordFilter filter) {
+        LineFormatter text = new LineFormatter.Text();
+        RecordViews views = new RecordViews();
+        for (int i = 0; i < records.size(); i++) {
+            Record r = records.get(i, views);
+            if (filter.accepts(r)) {
+                text.record(r).writeTo(pw);
             }
         }
         pw.println();
     }
 
-    public void dumpDose() throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException, IOException {
+    /**
+     * Reads the logs, unless read already.
+     */
+    public RecordBuffer getRecords() throws IOException {
         if (!read) {
             read = true;
             readAll();
         }
+        return records;
+    }
 
-        pw.println("Accumulated dose log:");
+    public static void printSummary(PrintWriter pw, RecordColumns cols) {
+        pw.println("Summary:");
+
+        RecordColumns.Selection dose = cols.select((byte) 'D', Long.MIN_VALUE + 1, Long.MAX_VALUE);
+        long nSv = dose.sum(cols.dose());
+        long secs = dose.sum(cols.seconds());
+        pw.printf("  Dose: %d nSv in %d records over %d sec, %.0f nSv/h average\n",
+                nSv, dose.count(), secs, (secs == 0) ? 0 : nSv * 3600.0D / secs);
+
+        RecordColumns.Selection alarms = cols.select((byte) 'A', Long.MIN_VALUE + 1, Long.MAX_VALUE);
+        if (alarms.count() > 0) {
+            pw.printf("  Alarms: %d, max %d cps, max %d nSv/h\n",
+                    alarms.count(), alarms.max(cols.maxGamma()), alarms.max(cols.maxDose()));
+        } else {
+            pw.println("  Alarms: none");
+        }
 
-        for (Record r : records) {
-            if (r instanceof PrologueRecord || r instanceof DoseRecord) {
-                pw.print("  ");
-                pw.println(r);
-            }
+        RecordColumns.Selection diag = cols.select((byte) 0, Long.MIN_VALUE + 1, Long.MAX_VALUE).where(cols.voltage(), 1, Short.MAX_VALUE);
+        if (diag.count() > 0) {
+            pw.printf("  Battery: min %.2fV in %d diagnostic records\n", diag.min(cols.voltage()) / 100.0D, diag.count());
         }
         pw.println();
     }
 
+    public static void printDose(PrintWriter pw, RecordBuffer records) {
+        pw.println("Accumulated dose log:");
+        printRecords(pw, records, RecordFilter.DOSE);
+    }
+
     public void liveStream() throws IOException {
-        pw.println("Live counts stream:");
+        List<SampleListener> listeners = new ArrayList<SampleListener>();
+        if (opts.getHttpPort() != null) {
+            LiveServer server = LiveServer.shared(opts.getHttpPort());
+            listeners.add(server.publisher(port, LIVE_WINDOWS));
+            pw.printf("Serving live readings at http://127.0.0.1:%d/live.json and /metrics\n", server.getPort());
+        } else {
+            listeners.add(new SamplePrinter(pw, LIVE_WINDOWS));
+        }
 
-        serial.enableReceiveTimeout(5000); // beef up for measurement
+        if (opts.getHousekeepingPeriod() > 0) {
+            new Housekeeping(pw, clock).schedule(scheduler, opts.getHousekeepingPeriod(), TimeUnit.SECONDS);
+        }
 
-        CircularBuffer<Timing> average5 = new CircularBuffer<Timing>(5);
-        CircularBuffer<Timing> average15 = new CircularBuffer<Timing>(15);
-        CircularBuffer<Timing> average60 = new CircularBuffer<Timing>(60);
+        BinarySampleSink samples = null;
+        if (opts.getSampleFile() != null) {
+            samples = new BinarySampleSink(opts.getSampleFile());
+            listeners.add(samples);
+        }
 
-        while(true) {
-            commOut.write((byte) (0x43));
-            commOut.flush();
+        TextExport export = null;
+        if (opts.getFormatFile() != null) {
+            export = new TextExport(opts.getFormatFile(), LIVE_WINDOWS);
+            listeners.add(export);
+        }
 
-            int h = commIn.read();
-            if (h != 0xAA) {
-                pw.println("Unable to read from " + port);
-                return;
+        try {
+            liveStream(listeners.toArray(new SampleListener[listeners.size()]));
+        } finally {
+            if (samples != null) {
+                samples.close();
             }
+            if (export != null) {
+                export.close();
+            }
+        }
+    }
 
-            long time1 = System.currentTimeMillis();
-            byte[] buf = readLine(commIn, 8);
-            long time2 = System.currentTimeMillis();
+    public void liveStream(SampleListener... listeners) throws IOException {
+        pw.println("Live counts stream:");
 
-            int c1 = buf[0] + (buf[1] << 8);
-            int c2 = buf[2] + (buf[3] << 8);
-            int c3 = buf[4] + (buf[5] << 8);
-            int counts = c1 + c2 + c3;
-            long duration = time2 - time1;
+        transport.setReceiveTimeout(5000); // beef up for measurement
 
-            Timing t = new Timing(duration, 60 * 1000 * counts);
-            average5.add(t);
-            average15.add(t);
-            average60.add(t);
+        ChangeDetector detector = readDetector();
+        readRtc();
 
-            pw.printf("  %s, %4d counts, %4d cps, %6d cpm, %6d cpm (5s), %6d cpm (15s), %6d cpm (60s)\n",
-                    new Date().toString(),
-                    counts, (counts * 1000) / duration, 60 * (counts * 1000) / duration,
-                    cpm(average5),
-                    cpm(average15),
-                    cpm(average60)
-                    );
-        }
-    }
+        RateMeter averages = new RateMeter(LIVE_WINDOWS);
+        LiveSample sample = new LiveSample(averages.windows());
+        LivePipeline pipeline = new LivePipeline(averages.windows(), listeners);
+        pipeline.start();
 
-    public long cpm(CircularBuffer<Timing> buf) {
-        long totalCounts = 0;
-        long totalDuration = 0;
-        for (Timing t : buf.getAll()) {
-            totalCounts += t.counts;
-            totalDuration += t.duration;
-        }
+        try {
+            long sent = send((byte) 0x43);
+            int failures = 0;
 
-        return totalCounts / totalDuration;
+            while (true) {
+                long acked = 0;
+                FrameDecoder.Frame buf = null;
+                if (readAck(sent)) {
+                    acked = System.nanoTime();
+                    try {
+                        buf = commIn.next(8);
+                    } catch (IOException e) {
+                        // counters are safe to ask again
+                    }
+                }
+                long done = System.nanoTime();
+
+                if (buf == null) {
+                    if (++failures > MAX_RETRIES) {
+                        pw.println("Unable to read from " + port);
+                        return;
+                    }
+                    resync("counters reading lost");
+                    sent = send((byte) 0x43);
+                    continue;
+                }
+                failures = 0;
+                metrics.counters.record(done - sent);
+                metrics.frame();
+
+                long integration = clock.exchange(sent, acked, done);
+                clock.sync(done, System.currentTimeMillis());
+
+                sample.gamma1 = buf.getUnsignedShort(0);
+                sample.gamma2 = buf.getUnsignedShort(2);
+                sample.gamma3 = buf.getUnsignedShort(4);
+                sample.neutron = buf.getUnsignedShort(6);
+
+                // squeeze in pending requests, then start next measurement
+                // right away, everything else overlaps with it
+                runScheduled(MAX_INTERLEAVED);
+                sent = send((byte) 0x43);
+
+                sample.time = clock.wallMillis(done);
+                sample.duration = TimeUnit.NANOSECONDS.toMillis(integration);
+                detector.add(sample);
+
+                averages.add(sample.counts(), sample.duration);
+                for (int w = 0; w < averages.windows(); w++) {
+                    sample.cpm[w] = averages.rate(w, 60 * 1000);
+                }
+
+                pipeline.offer(sample);
+            }
+        } finally {
+            try {
+                pipeline.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     private void readAll() throws IOException {
         pw.print("Reading data... ");
         pw.flush();
 
-        pw.print(" (diagnostic) ");
-        pw.flush();
+        final Progress progress = new Progress(pw, PROGRESS_INTERVAL);
+        RecordSink collector = new RecordSink() {
+            @Override
+            public void onRecord(Record r) {
+                progress.tick();
+                records.add(r);
+            }
 
-        commOut.write((byte) (0x50));
-        commOut.flush();
+            @Override
+            public void close() {
+                // nothing to do
+            }
+        };
 
-        int h = commIn.read();
-        if (h != 0xAA) {
-            throw new IOException("Unable to read.");
-        }
+        RecordSink[] sinks = (archive != null) ?
+                new RecordSink[] { collector, new RecordSinks.ArchiveSink(archive, pw) } :
+                new RecordSink[] { collector };
 
-        // read all records
-        byte[] buf;
-        while (!Arrays.equals(buf = readLine(commIn, 16), STOP)) {
-            pw.print(".");
+        RecordViews views = new RecordViews();
+        try {
+            pw.print(" (diagnostic) ");
+            pw.flush();
+            streamLog((byte) 0x50, views, sinks);
+
+            pw.print(" (dose) ");
             pw.flush();
-            records.add(parse(buf));
+            streamLog((byte) 0x79, views, sinks);
+
+            pw.println(" OK");
+            pw.println();
+        } finally {
+            closeAll(sinks);
         }
+    }
 
-        pw.print(" (dose) ");
-        pw.flush();
+    /**
+     * Downloads diagnostic and dose logs, and passes every record to all
+     * sinks as soon as it arrives. Nothing is kept after the record is
+     * handled, so memory use does not depend on log size.
+     */
+    public void streamAll(RecordSink... sinks) throws IOException {
+        RecordViews views = new RecordViews();
+        try {
+            streamLog((byte) 0x50, views, sinks);
+            streamLog((byte) 0x79, views, sinks);
+        } finally {
+            closeAll(sinks);
+        }
+    }
 
-        commOut.write((byte) (0x79));
-        commOut.flush();
+    private static void closeAll(RecordSink[] sinks) throws IOException {
+        IOException ex = null;
+        for (RecordSink s : sinks) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                ex = e;
+            }
+        }
+        if (ex != null) {
+            throw ex;
+        }
+    }
 
-        h = commIn.read();
-        if (h != 0xAA) {
+    private void streamLog(byte command, RecordViews views, RecordSink[] sinks) throws IOException {
+        if (command(command) < 0) {
             throw new IOException("Unable to read.");
         }
+        long last = System.nanoTime();
+
+        LogFramer framer = new LogFramer(commIn);
+        FrameDecoder.Frame buf;
+        while ((buf = framer.next()) != null) {
+            long now = System.nanoTime();
+            metrics.logFrame.record(now - last);
+            metrics.frame();
+            last = now;
+            Record r = views.wrap(buf.buffer(), buf.offset());
+            for (RecordSink s : sinks) {
+                s.onRecord(r);
+            }
+        }
 
-        // read all records
-        while (!Arrays.equals(buf = readLine(commIn, 16), STOP)) {
-            pw.print(".");
-            pw.flush();
-            records.add(parse(buf));
+        if (framer.getResyncs() > 0) {
+            metrics.resync(framer.getResyncs(), framer.getSkipped());
+            pw.printf(" (resynchronized %d times, %d bytes skipped) ", framer.getResyncs(), framer.getSkipped());
         }
+    }
 
-        pw.println(" OK");
-        pw.println();
+    static Record parse(byte[] buf) {
+        ByteBuffer b = ByteBuffer.wrap(buf);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        return create(buf[15]).wrap(b, 0);
     }
 
-    final Record parse(byte[] buf) {
-        switch (buf[15]) {
+    static Record create(byte opcode) {
+        switch (opcode) {
             case 0x30:
-                return new PrologueRecord(buf);
+            case 0x31:
+                return new PrologueRecord();
             case 'P':
-                return new PowerResetRecord(buf);
+                return new PowerResetRecord();
             case 'S':
-                return new SoftResetRecord(buf);
+                return new SoftResetRecord();
             case 'T':
-                return new TimeSetRecord(buf);
+                return new TimeSetRecord();
             case 'W':
-                return new WatchdogResetRecord(buf);
+                return new WatchdogResetRecord();
             case 'B':
-                return new NewBatteryRecord(buf);
+                return new NewBatteryRecord();
             case 'A':
-                return new AlarmRecord(buf);
+                return new AlarmRecord();
             case 'D':
-                return new DoseRecord(buf);
+                return new DoseRecord();
             default:
-                return new UnknownRecord(buf);
+                return new UnknownRecord();
         }
     }
 
@@ -274,76 +585,225 @@ public class BaseReader {
 
         int time = opts.getSpectrumDuration();
         int secsPerChannel = opts.getSpectrumSecsPerChannel();
-        serial.enableReceiveTimeout(secsPerChannel * 2 * 1000); // beef up for measurement
+        transport.setReceiveTimeout(secsPerChannel * 2 * 1000); // beef up for measurement
 
         pw.printf("Gathering gamma spectrum (%d secs; %d secs per channel)\n", time, secsPerChannel);
 
-        int[] acc = new int[CHANNELS];
+        SpectrumStore store = (opts.getSpectrumFile() != null) ? new SpectrumStore(opts.getSpectrumFile(), CHANNELS) : null;
+        try {
+            SpectrumAnalyzer analyzer = new SpectrumAnalyzer(CHANNELS, ANALYSIS_HALF_LIFE,
+                    opts.getCalibrationGain(), opts.getCalibrationOffset(), opts.getReferenceEnergy());
+
+            SpectrumIndex index;
+            if (store != null) {
+                index = store.index();
+                if (store.count() > 0) {
+                    pw.printf("Resuming from %d stored sweeps\n", store.count());
+                    int[] sweep = new int[CHANNELS];
+                    for (int i = 0; i < store.count(); i++) {
+                        for (int ch = 0; ch < CHANNELS; ch++) {
+                            sweep[ch] = store.counts(i, ch);
+                        }
+                        analyzer.add(sweep);
+                    }
+                }
+            } else {
+                index = new SpectrumIndex(CHANNELS);
+            }
+            gatherSpectrum(time, secsPerChannel, index, store, analyzer);
+        } finally {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+
+    private void gatherSpectrum(int time, int secsPerChannel, SpectrumIndex index, SpectrumStore store, SpectrumAnalyzer analyzer) throws IOException {
+        final int CHANNELS = index.channels();
+
+        int[] sweep1 = new int[CHANNELS];
+        int[] sweep2 = new int[CHANNELS];
+        long[] acc = new long[CHANNELS];
 
         long targetTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(time);
         while (targetTime > System.nanoTime()) {
-            commOut.write((byte) 0x53);
-            commOut.flush();
+            long sweepStart = System.currentTimeMillis();
+            int attempt = 0;
+            while (!readSweep(secsPerChannel, sweep1, sweep2)) {
+                if (++attempt > MAX_RETRIES) {
+                    pw.println("Unable to read from " + port);
+                    return;
+                }
+                resync("spectrum sweep lost");
+                sweepStart = System.currentTimeMillis();
+            }
 
-            int hb = commIn.read();
-            if (hb != 0xAA) {
-                pw.println("Unable to read from " + port);
-                return;
+            long sweepEnd = System.currentTimeMillis();
+            if (store != null) {
+                store.append(sweepStart, sweepEnd, secsPerChannel, sweep1, sweep2);
+            } else {
+                index.add(sweepStart, sweepEnd, sweep1);
             }
 
-            commOut.write((byte)(secsPerChannel & 0xFF));
-            commOut.write((byte)((secsPerChannel >> 8) & 0xFF));
-            commOut.flush();
+            long analysisStart = System.nanoTime();
+            analyzer.add(sweep1);
+            long analysisTime = System.nanoTime() - analysisStart;
 
-            pw.print("Accumulating: ");
-            pw.flush();
-            for (int i = 0; i < CHANNELS; i++) {
-                byte[] buf = readLine(commIn, 4);
+            if (opts.getSpectrumWindow() > 0) {
+                int n = index.last(TimeUnit.SECONDS.toMillis(opts.getSpectrumWindow()), sweepEnd, acc);
+                pw.printf("Last %d secs, %d sweeps:\n", opts.getSpectrumWindow(), n);
+            } else {
+                index.sum(0, index.count(), acc);
+            }
 
-                int c1 = (buf[0] & 0xFF) + ((buf[1] & 0xFF) << 8);
-                int c2 = (buf[2] & 0xFF) + ((buf[3] & 0xFF) << 8);
+            printSpectrum(pw, acc);
+            printPeaks(analyzer, analysisTime);
+        }
+    }
 
-                acc[i] += c1;
+    /**
+     * Runs one sweep. The sweep is always finished with 'Z', even when the
+     * acknowledge is lost: the arguments are still sent, so that a device
+     * which did see the command does not take the next one for them.
+     * @return false if the sweep was not read completely
+     */
+    private boolean readSweep(int secsPerChannel, int[] sweep1, int[] sweep2) throws IOException {
+        long sent = send((byte) 0x53);
+        boolean acked = readAck(sent);
+
+        commOut.write((byte)(secsPerChannel & 0xFF));
+        commOut.write((byte)((secsPerChannel >> 8) & 0xFF));
+        commOut.flush();
+        long last = System.nanoTime();
 
-                pw.print(".");
-                pw.flush();
+        try {
+            if (!acked) {
+                return false;
             }
-            pw.println();
 
+            pw.print("Accumulating: ");
+            pw.flush();
+            Progress progress = new Progress(pw, PROGRESS_INTERVAL);
+            try {
+                for (int i = 0; i < sweep1.length; i++) {
+                    FrameDecoder.Frame buf = commIn.next(4);
+                    long now = System.nanoTime();
+                    metrics.spectrumGroup.record(now - last);
+                    metrics.frame();
+                    last = now;
+
+                    sweep1[i] = buf.getUnsignedShort(0);
+                    sweep2[i] = buf.getUnsignedShort(2);
+
+                    progress.tick();
+                }
+            } catch (IOException e) {
+                return false;
+            } finally {
+                pw.println();
+            }
+            return true;
+        } finally {
             commOut.write((byte)0x5A);
             commOut.flush();
+        }
+    }
+
+    private void printPeaks(SpectrumAnalyzer analyzer, long analysisNanos) {
+        pw.printf("Peaks (analyzed in %d us):\n", TimeUnit.NANOSECONDS.toMicros(analysisNanos));
+        for (int i = 0; i < analyzer.peakCount(); i++) {
+            SpectrumAnalyzer.Peak p = analyzer.peak(i);
+            pw.printf("  #%d at ch %5.2f", p.getId(), p.getPosition() + 1);
+            if (analyzer.isCalibrated()) {
+                pw.printf(" (%4.0f keV)", analyzer.energy(p.getPosition()));
+            }
+            pw.printf(", %5.1f sigma, shift %+.2f ch since sweep %d\n", p.getSignificance(), p.getShift(), p.getFirstSweep());
+        }
+        if (analyzer.isCalibrated()) {
+            pw.printf("Calibration: %.2f keV/ch, %+.1f keV\n", analyzer.gain(), analyzer.offset());
+        }
+        pw.println();
+    }
+
+    static void printSpectrum(PrintWriter pw, long[] acc) {
+        long max = 0;
+        for (long a : acc) {
+            max = Math.max(max, a);
+        }
+
+        final int maxWidth = 50;
+        TextBuffer t = new TextBuffer();
+        for (int i = 0; i < acc.length; i++) {
+            t.append("Ch: ").append(i + 1, 2).append(", ").append(acc[i], 5).append(" cnts: ");
+            long width = (max == 0) ? 0 : acc[i] * maxWidth / max;
+            t.fill('*', (int) width).newLine();
+        }
+        t.newLine();
+        t.writeTo(pw);
+    }
+
+    /**
+     * Seeds the rate change detector from device alarm settings.
+     */
+    private ChangeDetector readDetector() throws IOException {
+        FrameDecoder.Frame b = readSettings();
+        ChangeDetector detector = (b != null) ?
+                ChangeDetector.fromSettings(b) :
+                new ChangeDetector(ChangeDetector.DEFAULT_SIGMA, ChangeDetector.DEFAULT_NEUTRON);
+        pw.printf("Alarm detection: gamma %.1f sigma over background, neutron %d counts per 6 seconds, learning background for %d samples\n",
+                detector.getSigma(), detector.getNeutronThreshold(), ChangeDetector.WARMUP);
+        return detector;
+    }
+
+    /**
+     * Maps the device RTC onto the sample clock.
+     */
+    private void readRtc() throws IOException {
+        long sent = command((byte) 'A');
+        if (sent < 0) {
+            return;
+        }
+        try {
+            FrameDecoder.Frame f = commIn.next(6);
+            long now = System.nanoTime();
+            metrics.request.record(now - sent);
+            metrics.frame();
+            clock.rtc(now, DeviceTime.epochSecond(f.buffer(), f.offset()));
+            pw.printf("Device clock is %+.1f s off the host clock\n", clock.rtcOffset());
+        } catch (IOException e) {
+            commIn.discard();
+        }
+    }
 
-            int max = 0;
-            for (int a : acc) {
-                max = Math.max(max, a);
+    private FrameDecoder.Frame readSettings() throws IOException {
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            if (attempt > 0) {
+                resync("settings block lost");
+            }
+            long sent = command((byte) 0x4A);
+            if (sent < 0) {
+                return null;
             }
 
-            final int maxWidth = 50;
-            for (int i = 0; i < CHANNELS; i++) {
-                pw.printf("Ch: %2d, %5d cnts: ", (i+1), acc[i]);
-                for (int c = 0; c < acc[i] * maxWidth / max; c++) {
-                    pw.print('*');
-                }
-                pw.println();
+            try {
+                FrameDecoder.Frame b = commIn.next(31);
+                metrics.settings.record(System.nanoTime() - sent);
+                metrics.frame();
+                return b;
+            } catch (IOException e) {
+                // retry
             }
-            pw.println();
         }
+        return null;
     }
 
     public void dumpSettings() throws IOException {
-        commOut.write((byte)0x4A);
-        commOut.flush();
-
-        int h = commIn.read();
-        if (h != 0xAA) {
+        FrameDecoder.Frame b = readSettings();
+        if (b == null) {
             pw.println("Unable to read from " + port);
             return;
         }
 
-        byte[] buf = readLine(commIn, 31);
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        b.order(ByteOrder.LITTLE_ENDIAN);
-
         pw.println("Device settings:");
 
         pw.printf("  Firmware Rev.: %s\n", (char)b.get(20) + "V" + (char)b.get(21) + (char)b.get(22));
@@ -382,160 +842,325 @@ public class BaseReader {
 //        pw.printf("  neutron discriminator: %d\n", b.getShort(6));
     }
 
+    /**
+     * Records are flyweight views over a shared buffer of raw 16-byte frames:
+     * {@link #wrap(ByteBuffer, int)} rebinds the view to another frame, fields
+     * are decoded on access, and text is rendered only by {@link #format(TextBuffer)}
+     * or {@link #fields(LineFormatter)}; toString() is a convenience over the former.
+     * Use {@link RecordViews} to iterate without allocating per record.
+     */
     public static class Record {
         protected final String meta;
-        protected final ByteBuffer b;
+        protected ByteBuffer b;
+        protected int off;
 
-        public Record(byte[] buf, String m) {
-            b = ByteBuffer.wrap(buf);
-            b.order(ByteOrder.LITTLE_ENDIAN);
+        protected Record(String m) {
             meta = m;
         }
 
-        public String toString() { return ""; }
+        public Record(byte[] buf, String m) {
+            this(m);
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            bb.order(ByteOrder.LITTLE_ENDIAN);
+            wrap(bb, 0);
+        }
+
+        /**
+         * @param buf little-endian buffer with raw records
+         * @param offset record offset in buffer
+         */
+        public Record wrap(ByteBuffer buf, int offset) {
+            b = buf;
+            off = offset;
+            return this;
+        }
+
+        public byte opcode() {
+            return b.get(off + 15);
+        }
+
+        void copyRaw(byte[] dst, int dstOffset) {
+            for (int i = 0; i < 16; i++) {
+                dst[dstOffset + i] = b.get(off + i);
+            }
+        }
+
+        /**
+         * Appends the dump line, without the indent and line end.
+         */
+        public void format(TextBuffer t) {
+        }
+
+        /**
+         * Passes the fields for CSV and JSON output, in column order.
+         */
+        public void fields(LineFormatter f) {
+        }
+
+        public String toString() {
+            TextBuffer t = new TextBuffer(96);
+            format(t);
+            return t.toString();
+        }
     }
 
     public static class TimedRecord extends Record {
-        private final String time;
+        protected TimedRecord(String m) {
+            super(m);
+        }
         public TimedRecord(byte[] buf, String m) {
             super(buf, m);
-            time = String.format("%4d/%02d/%02d %02d:%02d:%02d   %-15s ", 2000 + b.get(0), b.get(1), b.get(2), b.get(3), b.get(4), b.get(5), meta);
         }
-        public String toString() {
-            return super.toString() + time;
+        public long epochSecond() {
+            return DeviceTime.epochSecond(b, off);
+        }
+        public void format(TextBuffer t) {
+            t.appendDeviceTime(b, off, '/', ' ').append("   ").append(meta, -15).append(' ');
+        }
+        public void fields(LineFormatter f) {
+            f.time(LineFormatter.RecordColumn.TIME, b, off);
+            f.field(LineFormatter.RecordColumn.TYPE, meta);
         }
     }
 
     public static class UnknownRecord extends Record {
+        private final char[] hex = new char[32];
+
+        public UnknownRecord() {
+            super("UNKNOWN");
+        }
         public UnknownRecord(byte[] buf) {
             super(buf, "UNKNOWN");
         }
-        public String toString() {
-            return super.toString() + String.format("Unknown operation code '%s': %s", (char) b.get(15), Arrays.toString(b.array()));
+        public void format(TextBuffer t) {
+            t.append("Unknown operation code '").append((char) opcode()).append("': [");
+            for (int i = 0; i < 16; i++) {
+                if (i > 0) {
+                    t.append(", ");
+                }
+                t.append(b.get(off + i));
+            }
+            t.append(']');
+        }
+        public void fields(LineFormatter f) {
+            f.field(LineFormatter.RecordColumn.TYPE, meta);
+            for (int i = 0; i < 16; i++) {
+                hex[i * 2] = Character.forDigit((b.get(off + i) >> 4) & 0xF, 16);
+                hex[i * 2 + 1] = Character.forDigit(b.get(off + i) & 0xF, 16);
+            }
+            f.field(LineFormatter.RecordColumn.RAW, hex, 0, hex.length);
         }
     }
 
     public static class VoltageTimedRecord extends TimedRecord {
-        private final int current;
-        private final int voltage;
+        protected VoltageTimedRecord(String meta) {
+            super(meta);
+        }
         public VoltageTimedRecord(byte[] buf, String meta) {
             super(buf, meta);
-            voltage = b.getShort(6);
-            current = b.getShort(8);
         }
 
-        public String toString() {
-            return super.toString() + String.format("bat=%.2fV, current=%dmA", voltage / 100.0D, current);
+        public int getVoltage() {
+            return b.getShort(off + 6);
+        }
+
+        public int getCurrent() {
+            return b.getShort(off + 8);
+        }
+
+        public void format(TextBuffer t) {
+            super.format(t);
+            t.append("bat=").appendFixed(getVoltage(), 2).append("V, current=").append(getCurrent()).append("mA");
+        }
+        public void fields(LineFormatter f) {
+            super.fields(f);
+            f.field(LineFormatter.RecordColumn.VOLTAGE, getVoltage(), 2);
+            f.field(LineFormatter.RecordColumn.CURRENT, getCurrent());
         }
     }
 
     public static class PowerResetRecord extends VoltageTimedRecord {
+        public PowerResetRecord() {
+            super("POWER RESET");
+        }
         public PowerResetRecord(byte[] buf) {
             super(buf, "POWER RESET");
         }
     }
 
     public static class SoftResetRecord extends VoltageTimedRecord {
+        public SoftResetRecord() {
+            super("SOFT RESET");
+        }
         public SoftResetRecord(byte[] buf) {
             super(buf, "SOFT RESET");
         }
     }
 
     public static class TimeSetRecord extends VoltageTimedRecord {
+        public TimeSetRecord() {
+            super("TIME SET");
+        }
         public TimeSetRecord(byte[] buf) {
             super(buf, "TIME SET");
         }
     }
 
     public static class WatchdogResetRecord extends VoltageTimedRecord {
+        public WatchdogResetRecord() {
+            super("WATCHDOG RESET");
+        }
         public WatchdogResetRecord(byte[] buf) {
             super(buf, "WATCHDOG RESET");
         }
     }
 
     public static class NewBatteryRecord extends VoltageTimedRecord {
+        public NewBatteryRecord() {
+            super("NEW BATTERY");
+        }
         public NewBatteryRecord(byte[] buf) {
             super(buf, "NEW BATTERY");
         }
     }
 
     public static class DoseRecord extends TimedRecord {
-        private final int dose;
-        private final int time;
+        public DoseRecord() {
+            super("DOSE");
+        }
         public DoseRecord(byte[] buf) {
             super(buf, "DOSE");
-            dose = b.getInt(6);
-            time = b.getShort(10);
         }
 
-        public String toString() {
-            return super.toString() + String.format("%4d nSv, %4d sec, %5.0f nSv/h", dose, time, dose * 3600.0D / time);
+        public int getDose() {
+            return b.getInt(off + 6);
+        }
+
+        public int getSeconds() {
+            return b.getShort(off + 10);
+        }
+
+        public void format(TextBuffer t) {
+            super.format(t);
+            int dose = getDose();
+            int time = getSeconds();
+            t.append(dose, 4).append(" nSv, ").append(time, 4).append(" sec, ");
+            if (time != 0) {
+                t.append(rate(dose, time), 5);
+            } else {
+                // what "%5.0f" gives for the division by zero
+                t.append((dose == 0) ? "NaN" : (dose > 0) ? "Infinity" : "-Infinity", 5);
+            }
+            t.append(" nSv/h");
+        }
+        public void fields(LineFormatter f) {
+            super.fields(f);
+            int dose = getDose();
+            int time = getSeconds();
+            f.field(LineFormatter.RecordColumn.DOSE, dose);
+            f.field(LineFormatter.RecordColumn.SECONDS, time);
+            if (time != 0) {
+                f.field(LineFormatter.RecordColumn.RATE, rate(dose, time));
+            }
+        }
+
+        /**
+         * nSv/h, rounded half away from zero like "%.0f".
+         */
+        static long rate(long dose, long time) {
+            long num = Math.abs(dose * 3600);
+            long den = Math.abs(time);
+            long r = (2 * num + den) / (2 * den);
+            return ((dose < 0) != (time < 0)) ? -r : r;
         }
     }
 
     public static class AlarmRecord extends TimedRecord {
-        private final int maxGamma;
-        private final int maxDose;
+        public AlarmRecord() {
+            super("ALARM");
+        }
         public AlarmRecord(byte[] buf) {
             super(buf, "ALARM");
-            maxGamma = b.getInt(6);
-            maxDose = b.getInt(10);
         }
 
-        public String toString() {
-            return super.toString() + String.format("%d cps, %d nSv/h", maxGamma, maxDose);
+        public int getMaxGamma() {
+            return b.getInt(off + 6);
+        }
+
+        public int getMaxDose() {
+            return b.getInt(off + 10);
+        }
+
+        public void format(TextBuffer t) {
+            super.format(t);
+            t.append(getMaxGamma()).append(" cps, ").append(getMaxDose()).append(" nSv/h");
+        }
+        public void fields(LineFormatter f) {
+            super.fields(f);
+            f.field(LineFormatter.RecordColumn.MAX_GAMMA, getMaxGamma());
+            f.field(LineFormatter.RecordColumn.MAX_DOSE, getMaxDose());
         }
     }
 
     public static class PrologueRecord extends Record {
-        private final String time;
-        private final String serial;
-        private final String firmware;
+        private final char[] firmware = new char[4];
 
+        public PrologueRecord() {
+            super("");
+        }
         public PrologueRecord(byte[] buf) {
             super(buf, "");
-            time = String.format("%4d/%02d/%02d %02d:%02d:%02d", 2000 + b.get(4), b.get(5), b.get(6), b.get(7), b.get(8), b.get(9));
-            serial = String.valueOf(b.getShort(10));
-            firmware = "" + (char) b.get(12) + "V" + (char) b.get(13) +(char) b.get(14);
         }
-        public String toString() {
-            return super.toString() + String.format("Log starts %s, Serial No: %5s, Firmware Rev. %5s", time, serial, firmware);
+
+        public int getSerial() {
+            return b.getShort(off + 10) & 0xFFFF;
+        }
+
+        public void format(TextBuffer t) {
+            t.append("Log starts ").appendDeviceTime(b, off + 4, '/', ' ');
+            t.append(", Serial No: ").append(b.getShort(off + 10), 5);
+            t.append(", Firmware Rev. ").append(' ').append((char) b.get(off + 12)).append('V')
+                    .append((char) b.get(off + 13)).append((char) b.get(off + 14));
+        }
+        public void fields(LineFormatter f) {
+            f.time(LineFormatter.RecordColumn.TIME, b, off + 4);
+            f.field(LineFormatter.RecordColumn.TYPE, "PROLOGUE");
+            firmware[0] = (char) b.get(off + 12);
+            firmware[1] = 'V';
+            firmware[2] = (char) b.get(off + 13);
+            firmware[3] = (char) b.get(off + 14);
+            f.field(LineFormatter.RecordColumn.FIRMWARE, firmware, 0, firmware.length);
         }
     }
 
-    private static byte[] readLine(InputStream in, int count) throws IOException {
-        byte[] buf = new byte[count];
-        for (int i = 0; i < count; i++) {
-            int read = in.read();
-            if (read == -1) {
-                throw new IOException("Unable to read byte " + (i+1) + " of " + count);
+    /**
+     * Reusable flyweights, one per record type.
+     */
+    public static class RecordViews {
+        private final Record[] byOpcode = new Record[256];
+
+        public Record wrap(ByteBuffer buf, int offset) {
+            int op = buf.get(offset + 15) & 0xFF;
+            Record r = byOpcode[op];
+            if (r == null) {
+                r = create((byte) op);
+                byOpcode[op] = r;
             }
-            buf[i] = (byte) read;
+            return r.wrap(buf, offset);
         }
-        return buf;
     }
 
-
     public void close() {
         // read the rest
-        try {
-            int b;
-            while ((b = commIn.read()) != -1) {}
-        } catch (IOException e) {
-            // swallow
-        }
-
-        try {
-            commIn.close();
-        } catch (IOException e) {
-        }
+        drainStale();
 
         try {
             commOut.close();
         } catch (IOException e) {
         }
 
-        serial.close();
+        transport.close();
+        metrics.unregister();
     }
 
 }
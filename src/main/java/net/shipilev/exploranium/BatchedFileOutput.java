@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File written in batches: subclasses put into the direct {@link #buf}, which
+ * goes out with a single channel write when full, at most every drain interval,
+ * and on JVM exit, since live sessions usually end with Ctrl-C.
+ *
+ * Subclasses put while holding their own monitor, the exit drain takes it too.
+ * A write failure is kept and thrown from {@link #close()}.
+ */
+public abstract class BatchedFileOutput {
+
+    protected final ByteBuffer buf;
+
+    private final FileOutputStream fos;
+    private final FileChannel channel;
+    private final long drainInterval;
+    private final Thread hook;
+    private long lastDrain;
+    private IOException failure;
+
+    /**
+     * @param drainInterval nanoseconds
+     * @param name name of the exit drain thread
+     */
+    protected BatchedFileOutput(File file, boolean append, int batch, long drainInterval, String name) throws IOException {
+        this.fos = new FileOutputStream(file, append);
+        this.channel = fos.getChannel();
+        this.buf = ByteBuffer.allocateDirect(batch);
+        this.drainInterval = drainInterval;
+        this.lastDrain = System.nanoTime();
+
+        this.hook = new Thread(name) {
+            @Override
+            public void run() {
+                synchronized (BatchedFileOutput.this) {
+                    drain();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    /**
+     * Makes room for at least {@code len} bytes.
+     */
+    protected void reserve(int len) {
+        if (buf.remaining() < len) {
+            drain();
+        }
+    }
+
+    protected void drainIfDue() {
+        if (System.nanoTime() - lastDrain > drainInterval) {
+            drain();
+        }
+    }
+
+    protected void drain() {
+        lastDrain = System.nanoTime();
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        buf.clear();
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // already shutting down, the hook drains anyway
+        }
+        drain();
+        fos.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends live samples to a file as fixed-size little-endian records:
+ * time (ms), duration (ms), gamma1, gamma2, gamma3, neutron (ints).
+ * Records are written through a {@link BatchedFileOutput}, drained every
+ * {@link #DRAIN_INTERVAL}.
+ */
+public class BinarySampleSink extends BatchedFileOutput implements SampleListener {
+
+    public static final int RECORD_SIZE = 8 + 8 + 4 * 4;
+
+    private static final long DRAIN_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    public BinarySampleSink(File file) throws IOException {
+        super(file, true, RECORD_SIZE * 256, DRAIN_INTERVAL, "samples-drain");
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public synchronized void onSample(LiveSample s) {
+        reserve(RECORD_SIZE);
+        buf.putLong(s.time);
+        buf.putLong(s.duration);
+        buf.putInt(s.gamma1);
+        buf.putInt(s.gamma2);
+        buf.putInt(s.gamma3);
+        buf.putInt(s.neutron);
+        drainIfDue();
+    }
+
+    @Override
+    public void onDropped(long count) {
+        // gaps are visible in sample timestamps
+    }
+
+}
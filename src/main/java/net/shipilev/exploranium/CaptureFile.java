@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw link traffic, as seen by the host.
+ *
+ * The file starts with a header: magic, version and wall-clock time of the
+ * capture start (ms). Every chunk passed through the link follows as an
+ * entry: nanoseconds since the capture start, direction, length and the
+ * bytes themselves, all little-endian. Entries are written through a
+ * {@link BatchedFileOutput}, drained every {@link #DRAIN_INTERVAL}.
+ */
+public class CaptureFile {
+
+    public static final int MAGIC = 0x50435247; // "GRCP"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int ENTRY_HEADER = 8 + 1 + 4;
+
+    public static final byte HOST_TO_DEVICE = 'H';
+    public static final byte DEVICE_TO_HOST = 'D';
+
+    private static final int BATCH = 64 * 1024;
+    private static final long DRAIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+    public static class Entry {
+        public final long nanos;
+        public final byte direction;
+        public final byte[] data;
+
+        public Entry(long nanos, byte direction, byte[] data) {
+            this.nanos = nanos;
+            this.direction = direction;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Reads the whole capture. A torn last entry is dropped.
+     */
+    public static List<Entry> load(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel ch = fis.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buf.hasRemaining() && ch.read(buf) != -1) {
+                // keep reading
+            }
+            buf.flip();
+
+            if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+                throw new IOException("Not a capture file: " + file);
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported capture version " + version + ": " + file);
+            }
+            buf.getLong();
+
+            List<Entry> entries = new ArrayList<Entry>();
+            while (buf.remaining() >= ENTRY_HEADER) {
+                long nanos = buf.getLong();
+                byte dir = buf.get();
+                int len = buf.getInt();
+                if (len < 0 || buf.remaining() < len) {
+                    break;
+                }
+                byte[] data = new byte[len];
+                buf.get(data);
+                entries.add(new Entry(nanos, dir, data));
+            }
+            return entries;
+        } finally {
+            fis.close();
+        }
+    }
+
+    public static class Writer extends BatchedFileOutput {
+        private final long start;
+
+        public Writer(File file) throws IOException {
+            super(file, false, BATCH, DRAIN_INTERVAL, "capture-drain");
+            this.start = System.nanoTime();
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            buf.putLong(System.currentTimeMillis());
+        }
+
+        public synchronized void append(byte direction, byte[] b, int off, int len) {
+            long nanos = System.nanoTime() - start;
+            drainIfDue();
+            while (len > 0) {
+                reserve(ENTRY_HEADER + 1);
+                int n = Math.min(len, buf.remaining() - ENTRY_HEADER);
+                buf.putLong(nanos);
+                buf.put(direction);
+                buf.putInt(n);
+                buf.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Passes everything through to the underlying transport, recording every
+ * byte in both directions into a {@link CaptureFile}.
+ */
+public class CaptureTransport implements Transport {
+
+    private final Transport delegate;
+    private final CaptureFile.Writer writer;
+    private InputStream in;
+    private OutputStream out;
+
+    public CaptureTransport(Transport delegate, File file) throws IOException {
+        this.delegate = delegate;
+        this.writer = new CaptureFile.Writer(file);
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            in = new FilterInputStream(delegate.getInputStream()) {
+                private final byte[] single = new byte[1];
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        single[0] = (byte) b;
+                        writer.append(CaptureFile.DEVICE_TO_HOST, single, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        writer.append(CaptureFile.DEVICE_TO_HOST, b, off, n);
+                    }
+                    return n;
+                }
+            };
+        }
+        return in;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = new FilterOutputStream(delegate.getOutputStream()) {
+                private final byte[] single = new byte[1];
+
+                @Override
+                public void write(int b) throws IOException {
+                    single[0] = (byte) b;
+                    writer.append(CaptureFile.HOST_TO_DEVICE, single, 0, 1);
+                    super.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writer.append(CaptureFile.HOST_TO_DEVICE, b, off, len);
+                    out.write(b, off, len);
+                }
+            };
+        }
+        return out;
+    }
+
+    @Override
+    public void setReceiveTimeout(int millis) {
+        delegate.setReceiveTimeout(millis);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // nothing to do, the capture is best effort
+        }
+    }
+
+}
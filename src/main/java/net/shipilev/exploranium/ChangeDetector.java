@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+/**
+ * Sequential rate change detection for live counters.
+ *
+ * Gamma and neutron channels run one-sided Poisson CUSUM tests each: every
+ * sample adds the log-likelihood ratio of "rate went up to the alarm level"
+ * against "rate is at background", and the score is clamped at zero. The alarm
+ * is raised once the score crosses {@code ln(FALSE_ALARM_SAMPLES)}, which bounds
+ * the mean run between false alarms to about that many samples. A rising source
+ * is caught within a sample or two, instead of waiting for the moving averages.
+ *
+ * Alarm levels follow the device settings: gamma is that many sigma over
+ * background within one sample, neutron is the counts per 6 seconds threshold.
+ * Background is learned from the first {@link #WARMUP} samples, then tracked
+ * slowly, only while the score shows no sign of a change.
+ */
+public class ChangeDetector {
+
+    public static final double DEFAULT_SIGMA = 5.0;
+    public static final int DEFAULT_NEUTRON = 4;
+
+    static final int WARMUP = 10;
+    static final double FALSE_ALARM_SAMPLES = 10000;
+    static final double BACKGROUND_SAMPLES = 100;
+
+    /** Floor for learned background, counts per second; keeps empty channels testable. */
+    private static final double MIN_BACKGROUND = 0.01;
+
+    private final double sigma;
+    private final int neutronThreshold;
+    private final Channel gamma;
+    private final Channel neutron;
+
+    public ChangeDetector(double sigma, int neutronThreshold) {
+        this.sigma = sigma;
+        this.neutronThreshold = neutronThreshold;
+        this.gamma = new Channel() {
+            @Override
+            double alarmMean(double mean, long millis) {
+                return mean + ChangeDetector.this.sigma * Math.max(1.0, Math.sqrt(mean));
+            }
+        };
+        this.neutron = new Channel() {
+            @Override
+            double alarmMean(double mean, long millis) {
+                return Math.max(2 * mean, ChangeDetector.this.neutronThreshold * millis / 6000.0D);
+            }
+        };
+    }
+
+    /**
+     * Seeds alarm levels from the 31-byte settings block.
+     */
+    public static ChangeDetector fromSettings(FrameDecoder.Frame settings) {
+        double sigma = settings.get(8) / 10.0D;
+        int neutron = settings.get(9);
+        return new ChangeDetector((sigma > 0) ? sigma : DEFAULT_SIGMA, (neutron > 0) ? neutron : DEFAULT_NEUTRON);
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    public int getNeutronThreshold() {
+        return neutronThreshold;
+    }
+
+    /**
+     * Feeds one counter reading, and marks the alarm decisions in it.
+     */
+    public void add(LiveSample s) {
+        add(s.counts(), s.neutron, s.duration);
+        s.gammaAlarm = gamma.alarm;
+        s.neutronAlarm = neutron.alarm;
+    }
+
+    public void add(int gammaCounts, int neutronCounts, long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        gamma.add(gammaCounts, millis);
+        neutron.add(neutronCounts, millis);
+    }
+
+    public boolean isLearning() {
+        return gamma.samples < WARMUP;
+    }
+
+    public boolean isGammaAlarm() {
+        return gamma.alarm;
+    }
+
+    public boolean isNeutronAlarm() {
+        return neutron.alarm;
+    }
+
+    public double getGammaScore() {
+        return gamma.score;
+    }
+
+    public double getNeutronScore() {
+        return neutron.score;
+    }
+
+    /** Learned gamma background, counts per second. */
+    public double getGammaBackground() {
+        return gamma.rate * 1000;
+    }
+
+    /** Learned neutron background, counts per second. */
+    public double getNeutronBackground() {
+        return neutron.rate * 1000;
+    }
+
+    private abstract static class Channel {
+        private static final double THRESHOLD = Math.log(FALSE_ALARM_SAMPLES);
+
+        /** Background, counts per millisecond. */
+        private double rate;
+        private long samples;
+        private long warmupCounts;
+        private long warmupMillis;
+        private double score;
+        private boolean alarm;
+
+        /**
+         * Expected counts at the alarm level, given background expectation.
+         */
+        abstract double alarmMean(double mean, long millis);
+
+        void add(int counts, long millis) {
+            if (samples < WARMUP) {
+                samples++;
+                warmupCounts += counts;
+                warmupMillis += millis;
+                rate = Math.max(MIN_BACKGROUND / 1000, (double) warmupCounts / warmupMillis);
+                return;
+            }
+            samples++;
+
+            double mu0 = rate * millis;
+            double mu1 = alarmMean(mu0, millis);
+            double llr = counts * Math.log(mu1 / mu0) - (mu1 - mu0);
+
+            score = Math.max(0, score + llr);
+            if (score > THRESHOLD) {
+                alarm = true;
+                // bound the excursion, so the alarm clears soon after the source is gone
+                score = Math.min(score, 2 * THRESHOLD);
+            } else if (score == 0) {
+                alarm = false;
+            }
+
+            if (!alarm && score < THRESHOLD / 2) {
+                rate += (counts / (double) millis - rate) / BACKGROUND_SAMPLES;
+                rate = Math.max(MIN_BACKGROUND / 1000, rate);
+            }
+        }
+    }
+
+}
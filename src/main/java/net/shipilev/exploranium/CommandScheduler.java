@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of pending device requests, for interleaving short exchanges
+ * with a long-running mode on the single half-duplex link.
+ *
+ * Requests are served by priority, then by deadline; a request that is
+ * still queued when its deadline passes is dropped and reported expired.
+ * Periodic requests are re-queued every period. The link owner calls
+ * {@link #poll(long)} whenever the link is idle, e.g. between two
+ * counter reads, and reports the outcome back to the request.
+ * Submitting is thread-safe.
+ */
+public class CommandScheduler {
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    public interface Handler {
+        /**
+         * @param response valid only during the call
+         * @param queueDelay nanoseconds between the request becoming due and being sent
+         */
+        void onResponse(FrameDecoder.Frame response, long queueDelay);
+
+        void onFailure(String reason, long queueDelay);
+    }
+
+    public static class Request implements Comparable<Request> {
+        private final byte command;
+        private final int responseLength;
+        private final Priority priority;
+        private final Handler handler;
+        private long due;
+        private long deadline;
+        private long seq;
+
+        public Request(byte command, int responseLength, Priority priority, Handler handler) {
+            this.command = command;
+            this.responseLength = responseLength;
+            this.priority = priority;
+            this.handler = handler;
+        }
+
+        public byte getCommand() {
+            return command;
+        }
+
+        public int getResponseLength() {
+            return responseLength;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public Handler getHandler() {
+            return handler;
+        }
+
+        public long getDue() {
+            return due;
+        }
+
+        @Override
+        public int compareTo(Request o) {
+            int c = priority.compareTo(o.priority);
+            if (c != 0) {
+                return c;
+            }
+            if (deadline != o.deadline) {
+                return (deadline - o.deadline < 0) ? -1 : 1;
+            }
+            return (seq < o.seq) ? -1 : ((seq == o.seq) ? 0 : 1);
+        }
+    }
+
+    private static class Periodic {
+        private final Request template;
+        private final long period;
+        private long nextDue;
+
+        private Periodic(Request template, long period, long nextDue) {
+            this.template = template;
+            this.period = period;
+            this.nextDue = nextDue;
+        }
+    }
+
+    private final PriorityQueue<Request> queue = new PriorityQueue<Request>();
+    private final List<Periodic> periodics = new ArrayList<Periodic>();
+    private final LatencyHistogram queueDelay;
+    private long seq;
+    private long expired;
+
+    public CommandScheduler(LatencyHistogram queueDelay) {
+        this.queueDelay = queueDelay;
+    }
+
+    /**
+     * Queues a one-off request, which expires if not sent within {@code timeout}.
+     */
+    public synchronized void submit(Request r, long timeout, TimeUnit unit) {
+        long now = System.nanoTime();
+        enqueue(r, now, now + unit.toNanos(timeout));
+    }
+
+    /**
+     * Queues the request every period, starting now. Each instance expires
+     * if it could not be sent before the next one is due.
+     */
+    public synchronized void every(Request r, long period, TimeUnit unit) {
+        periodics.add(new Periodic(r, unit.toNanos(period), System.nanoTime()));
+    }
+
+    private void enqueue(Request r, long due, long deadline) {
+        Request q = new Request(r.command, r.responseLength, r.priority, r.handler);
+        q.due = due;
+        q.deadline = deadline;
+        q.seq = seq++;
+        queue.add(q);
+    }
+
+    /**
+     * @return the most urgent request due at {@code now}, or null
+     */
+    public Request poll(long now) {
+        List<Request> dead = null;
+        Request r;
+        synchronized (this) {
+            for (Periodic p : periodics) {
+                if (now - p.nextDue >= 0) {
+                    enqueue(p.template, p.nextDue, p.nextDue + p.period);
+                    p.nextDue += p.period;
+                    if (now - p.nextDue >= 0) {
+                        // fell behind by more than a period, do not burst
+                        p.nextDue = now + p.period;
+                    }
+                }
+            }
+
+            // purge by deadline, not just at the head: lower priorities may expire first
+            for (Iterator<Request> it = queue.iterator(); it.hasNext(); ) {
+                Request q = it.next();
+                if (now - q.deadline > 0) {
+                    it.remove();
+                    if (dead == null) {
+                        dead = new ArrayList<Request>();
+                    }
+                    dead.add(q);
+                    expired++;
+                }
+            }
+            r = queue.poll();
+        }
+
+        if (dead != null) {
+            for (Request d : dead) {
+                d.handler.onFailure("expired in queue", now - d.due);
+            }
+        }
+        if (r != null) {
+            queueDelay.record(now - r.due);
+        }
+        return r;
+    }
+
+    public synchronized int pending() {
+        return queue.size();
+    }
+
+    public synchronized long expired() {
+        return expired;
+    }
+
+}
@@ -0,0 +1,367 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emulates GR-100 side of the protocol, as documented in docs/protocol.txt.
+ * Commands are processed on the writer thread; replies are put on the
+ * {@link SimulatedLine} with appropriate delays.
+ */
+public class DeviceSimulator {
+
+    public static final int SPECTRUM_CHANNELS = 41;
+
+    private static final byte ACK = (byte) 0xAA;
+    private static final short SERIAL = 3634;
+    private static final byte[] FIRMWARE = {'1', '8', '0'};
+
+    private static final char[] DIAG_CODES = {'P', 'S', 'B', 'A', 'T', 'W'};
+
+    private final SimulatedTransport.Config config;
+    private final SimulatedLine line;
+    private final Random random;
+    private final Random noise;
+    private final long latencyNanos;
+
+    private final byte[] settings = new byte[31];
+    private byte[] diagLog;
+    private byte[] doseLog;
+    private long rtcOffset;
+    private int counterReads;
+
+    private int command = -1;
+    private byte[] args;
+    private int argCount;
+
+    public DeviceSimulator(SimulatedTransport.Config config, SimulatedLine line) {
+        this.config = config;
+        this.line = line;
+        this.random = new Random(config.seed);
+        this.noise = new Random(config.seed + 1);
+        this.latencyNanos = (long) (config.latency * TimeUnit.MILLISECONDS.toNanos(1));
+        initSettings();
+    }
+
+    public void receive(int b) {
+        long arrival = System.nanoTime() + latencyNanos + line.getNanosPerByte();
+
+        if (command != -1) {
+            args[argCount++] = (byte) b;
+            if (argCount == args.length) {
+                int c = command;
+                command = -1;
+                completeCommand(c, args, arrival);
+            }
+            return;
+        }
+
+        switch (b) {
+            case 'B':
+            case 'V':
+            case 'G':
+            case 'N':
+            case 'L':
+            case 'U':
+                ack(arrival);
+                break;
+            case 'M':
+                ack(arrival);
+                send(new byte[]{(byte) 0xFF}, arrival);
+                send(new byte[]{0x01}, arrival + scaled(500));
+                break;
+            case 'Z':
+                line.discard();
+                break;
+            case 'T':
+                ack(arrival);
+                send(le16(2041 + random.nextInt(50)), arrival);
+                break;
+            case 'Y':
+                ack(arrival);
+                send(le16(136), arrival);
+                break;
+            case 'F':
+                ack(arrival);
+                send(new byte[]{(byte) 0xE4, 0x06, 0x00, 0x01, 0x01, 0x00, 0x00, 0x00, 0x27, 0x6F, 0x47, 0x00}, arrival);
+                break;
+            case 'A':
+                ack(arrival);
+                byte[] rtc = new byte[6];
+                putDate(rtc, 0, System.currentTimeMillis() + rtcOffset, TimeZone.getDefault());
+                send(rtc, arrival);
+                break;
+            case 'C':
+                ack(arrival);
+                send(counters(), arrival + scaled(config.counterDelay));
+                break;
+            case 'J':
+                ack(arrival);
+                settings[30] = checksum(settings, 30);
+                send(settings.clone(), arrival);
+                break;
+            case 'P':
+                ack(arrival);
+                if (diagLog == null) {
+                    diagLog = generateLog(config.diag, (byte) 0x30);
+                }
+                send(diagLog, arrival);
+                break;
+            case 'y':
+                ack(arrival);
+                if (doseLog == null) {
+                    doseLog = generateLog(config.dose, (byte) 0x31);
+                }
+                send(doseLog, arrival);
+                break;
+            case 'S':
+                ack(arrival);
+                expect(b, 2);
+                break;
+            case 'a':
+                ack(arrival);
+                expect(b, 6);
+                break;
+            case 'K':
+                ack(arrival);
+                expect(b, 31);
+                break;
+            case 'c':
+            case 'b':
+                expect(b, 1);
+                break;
+            default:
+                // unknown command, the device keeps silent
+        }
+    }
+
+    private void completeCommand(int c, byte[] a, long arrival) {
+        switch (c) {
+            case 'S':
+                int secsPerChannel = (a[0] & 0xFF) + ((a[1] & 0xFF) << 8);
+                long dwell = scaled(TimeUnit.SECONDS.toMillis(secsPerChannel));
+                for (int i = 0; i < SPECTRUM_CHANNELS; i++) {
+                    send(spectrumGroup(i, secsPerChannel), arrival + dwell * (i + 1));
+                }
+                break;
+            case 'a':
+                Calendar cal = new GregorianCalendar(2000 + a[0], a[1] - 1, a[2], a[3], a[4], a[5]);
+                rtcOffset = cal.getTimeInMillis() - System.currentTimeMillis();
+                break;
+            case 'K':
+                System.arraycopy(a, 0, settings, 0, settings.length);
+                ack(arrival);
+                break;
+            case 'c':
+                settings[3] = a[0];
+                ack(arrival);
+                break;
+            case 'b':
+                settings[0] = (byte) ((a[0] == '1') ? (settings[0] | 0x04) : (settings[0] & ~0x04));
+                break;
+            default:
+                throw new IllegalStateException("No arguments expected for " + c);
+        }
+    }
+
+    private void expect(int c, int count) {
+        command = c;
+        args = new byte[count];
+        argCount = 0;
+    }
+
+    /**
+     * Puts bytes on the line, losing some of them if configured so.
+     */
+    private void send(byte[] data, long notBefore) {
+        if (config.drop > 0) {
+            int n = 0;
+            byte[] kept = new byte[data.length];
+            for (byte b : data) {
+                if (noise.nextDouble() >= config.drop) {
+                    kept[n++] = b;
+                }
+            }
+            data = Arrays.copyOf(kept, n);
+        }
+        line.send(data, notBefore);
+    }
+
+    private void ack(long arrival) {
+        send(new byte[]{ACK}, arrival);
+    }
+
+    private long scaled(long millis) {
+        return (long) (TimeUnit.MILLISECONDS.toNanos(millis) * config.scale);
+    }
+
+    private byte[] counters() {
+        double secs = config.counterDelay / 1000.0;
+        double cps = config.cps + ((counterReads++ >= config.sourceAfter) ? config.source : 0);
+        double gamma = cps * secs;
+        byte[] r = new byte[8];
+        putShort(r, 0, poisson(gamma * 0.55));
+        putShort(r, 2, poisson(gamma * 0.35));
+        putShort(r, 4, poisson(gamma * 0.10));
+        putShort(r, 6, poisson(config.neutronCps * secs));
+        return r;
+    }
+
+    private byte[] spectrumGroup(int channel, int secsPerChannel) {
+        // roughly matches the shape of the captured spectrum in docs/protocol.txt
+        double mean = config.cps * secsPerChannel * 1.6 * Math.exp(-channel / 6.0) + 0.05 * secsPerChannel;
+        int c1 = poisson(mean);
+        int c2 = c1 + poisson(config.cps * secsPerChannel * 0.4 * Math.exp(-channel / 20.0));
+        byte[] r = new byte[4];
+        putShort(r, 0, c1);
+        putShort(r, 2, c2);
+        return r;
+    }
+
+    private byte[] generateLog(int count, byte prologueCode) {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        byte[] log = new byte[16 * (count + 2)];
+
+        // prologue
+        log[0] = 0x50;
+        log[2] = 0x10;
+        putDate(log, 4, System.currentTimeMillis(), TimeZone.getDefault());
+        putShort(log, 10, SERIAL);
+        System.arraycopy(FIRMWARE, 0, log, 12, 3);
+        log[15] = prologueCode;
+
+        Calendar epoch = new GregorianCalendar(utc);
+        epoch.clear();
+        epoch.set(2013, Calendar.JANUARY, 1);
+        long time = epoch.getTimeInMillis();
+        for (int i = 0; i < count; i++) {
+            int off = 16 * (i + 1);
+            if (prologueCode == 0x31) {
+                int period = 3600;
+                time += TimeUnit.SECONDS.toMillis(period);
+                putDate(log, off, time, utc);
+                putInt(log, off + 6, poisson(120.0 * period / 3600));
+                putShort(log, off + 10, period);
+                log[off + 12] = (byte) (125 + random.nextInt(10));
+                log[off + 14] = (byte) 0xFF;
+                log[off + 15] = 'D';
+            } else {
+                time += TimeUnit.MINUTES.toMillis(1 + random.nextInt(48 * 60));
+                putDate(log, off, time, utc);
+                char code = DIAG_CODES[random.nextInt(DIAG_CODES.length)];
+                if (code == 'A') {
+                    putInt(log, off + 6, 50 + random.nextInt(500));
+                    putInt(log, off + 10, 200 + random.nextInt(5000));
+                } else {
+                    putShort(log, off + 6, 120 + random.nextInt(20));
+                    putShort(log, off + 8, -30 - random.nextInt(100));
+                    log[off + 12] = 0x01;
+                    log[off + 13] = 0x0C;
+                }
+                log[off + 14] = (byte) 0xFF;
+                log[off + 15] = (byte) code;
+            }
+        }
+
+        for (int i = log.length - 16; i < log.length; i++) {
+            log[i] = ACK;
+        }
+        return log;
+    }
+
+    private void initSettings() {
+        settings[0] = 0x45;
+        settings[1] = 0x05;
+        settings[3] = 0x1C;
+        putShort(settings, 4, 0x06F4);
+        putShort(settings, 6, 0x0FFF);
+        settings[8] = 0x32;
+        settings[9] = 0x04;
+        settings[10] = 0x0A;
+        settings[11] = 0x0A;
+        putShort(settings, 12, 2100);
+        putShort(settings, 14, 136);
+        System.arraycopy(String.valueOf(SERIAL).getBytes(), 0, settings, 16, 4);
+        System.arraycopy(FIRMWARE, 0, settings, 20, 3);
+        putDate(settings, 24, System.currentTimeMillis(), TimeZone.getDefault());
+    }
+
+    private int poisson(double mean) {
+        if (mean <= 0) {
+            return 0;
+        }
+        if (mean > 50) {
+            return (int) Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+        }
+        double l = Math.exp(-mean);
+        double p = 1.0;
+        int k = 0;
+        do {
+            k++;
+            p *= random.nextDouble();
+        } while (p > l);
+        return k - 1;
+    }
+
+    private static byte checksum(byte[] buf, int len) {
+        int s = 0;
+        for (int i = 0; i < len; i++) {
+            s += buf[i];
+        }
+        return (byte) s;
+    }
+
+    private static byte[] le16(int v) {
+        byte[] r = new byte[2];
+        putShort(r, 0, v);
+        return r;
+    }
+
+    private static void putShort(byte[] buf, int off, int v) {
+        v = Math.min(v, 0xFFFF);
+        buf[off] = (byte) v;
+        buf[off + 1] = (byte) (v >> 8);
+    }
+
+    private static void putInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) v;
+        buf[off + 1] = (byte) (v >> 8);
+        buf[off + 2] = (byte) (v >> 16);
+        buf[off + 3] = (byte) (v >> 24);
+    }
+
+    static void putDate(byte[] buf, int off, long millis, TimeZone tz) {
+        Calendar cal = new GregorianCalendar(tz);
+        cal.setTimeInMillis(millis);
+        buf[off] = (byte) (cal.get(Calendar.YEAR) - 2000);
+        buf[off + 1] = (byte) (cal.get(Calendar.MONTH) + 1);
+        buf[off + 2] = (byte) cal.get(Calendar.DAY_OF_MONTH);
+        buf[off + 3] = (byte) cal.get(Calendar.HOUR_OF_DAY);
+        buf[off + 4] = (byte) cal.get(Calendar.MINUTE);
+        buf[off + 5] = (byte) cal.get(Calendar.SECOND);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Device timestamps are six bytes, YY MM DD HH MM SS, in whatever zone the
+ * device clock was set to. They are converted to epoch seconds as if that
+ * zone were UTC, which keeps them ordered and cheap to compute.
+ */
+public class DeviceTime {
+
+    public static long epochSecond(int year, int month, int day, int hour, int minute, int second) {
+        return days(year, month, day) * 86400L + hour * 3600L + minute * 60L + second;
+    }
+
+    public static long epochSecond(ByteBuffer b, int off) {
+        return epochSecond(2000 + b.get(off), b.get(off + 1), b.get(off + 2), b.get(off + 3), b.get(off + 4), b.get(off + 5));
+    }
+
+    public static long epochSecond(byte[] b, int off) {
+        return epochSecond(2000 + b[off], b[off + 1], b[off + 2], b[off + 3], b[off + 4], b[off + 5]);
+    }
+
+    /**
+     * Days since 1970-01-01 in proleptic Gregorian calendar, see
+     * http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+     */
+    static long days(int y, int m, int d) {
+        y -= (m <= 2) ? 1 : 0;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * Inverse of {@link #days}, returns the date packed as yyyymmdd.
+     */
+    static int civil(long days) {
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long d = doy - (153 * mp + 2) / 5 + 1;
+        long m = mp + (mp < 10 ? 3 : -9);
+        long y = yoe + era * 400 + ((m <= 2) ? 1 : 0);
+        return (int) (y * 10000 + m * 100 + d);
+    }
+
+    /**
+     * Parses "yyyy/MM/dd" or "yyyy/MM/dd HH:mm:ss" into device epoch seconds.
+     */
+    public static long parse(String s) throws ParseException {
+        String pattern = (s.trim().length() > 10) ? "yyyy/MM/dd HH:mm:ss" : "yyyy/MM/dd";
+        SimpleDateFormat fmt = new SimpleDateFormat(pattern);
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        fmt.setLenient(false);
+        return fmt.parse(s.trim()).getTime() / 1000;
+    }
+
+}
@@ -0,0 +1,351 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Dose, alarm and battery summaries over the archived logs of many devices.
+ *
+ * Every device log is decoded into {@link RecordColumns} by its own task, then
+ * the columns are cut in chunks of {@link #CHUNK} rows, and every chunk is
+ * scanned by yet another task into a partial {@link Totals}. Partials are
+ * merged in chunk order on the calling thread, so the result does not depend
+ * on how tasks were scheduled.
+ */
+public class FleetSummary {
+
+    static final int CHUNK = 64 * 1024;
+
+    /** Origin for battery trend fitting, 2000/01/01, keeps the sums small. */
+    private static final long TREND_ORIGIN = 946684800L;
+
+    public enum Period {
+        DAY {
+            @Override
+            long index(long epochSecond) {
+                return epochSecond / 86400;
+            }
+
+            @Override
+            String label(long index) {
+                return date(DeviceTime.civil(index));
+            }
+        },
+        WEEK {
+            // 1970/01/01 was Thursday, weeks start on Monday
+            @Override
+            long index(long epochSecond) {
+                return (epochSecond / 86400 + 3) / 7;
+            }
+
+            @Override
+            String label(long index) {
+                return date(DeviceTime.civil(index * 7 - 3));
+            }
+        },
+        MONTH {
+            @Override
+            long index(long epochSecond) {
+                int ymd = DeviceTime.civil(epochSecond / 86400);
+                return (ymd / 10000) * 12 + (ymd / 100 % 100) - 1;
+            }
+
+            @Override
+            String label(long index) {
+                return String.format("%04d/%02d", index / 12, index % 12 + 1);
+            }
+        };
+
+        abstract long index(long epochSecond);
+
+        abstract String label(long index);
+
+        private static String date(int ymd) {
+            return String.format("%04d/%02d/%02d", ymd / 10000, ymd / 100 % 100, ymd % 100);
+        }
+
+        public static Period parse(String s) {
+            try {
+                return valueOf(s.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Summary period should be day, week or month: " + s);
+            }
+        }
+    }
+
+    private final Period period;
+    private final long from;
+    private final long to;
+    private final Map<Integer, Totals> devices = new TreeMap<Integer, Totals>();
+    private final Totals fleet = new Totals();
+
+    private FleetSummary(Period period, long from, long to) {
+        this.period = period;
+        // untimed records are kept with the smallest epoch second
+        this.from = Math.max(from, Long.MIN_VALUE + 1);
+        this.to = to;
+    }
+
+    public static FleetSummary compute(RecordArchive archive, List<Integer> serials, long from, long to,
+                                       Period period, ExecutorService pool) throws IOException, InterruptedException {
+        FleetSummary fs = new FleetSummary(period, from, to);
+
+        List<Future<RecordColumns>> loads = new ArrayList<Future<RecordColumns>>();
+        for (int serial : serials) {
+            loads.add(pool.submit(fs.new Load(archive.fileFor(serial))));
+        }
+
+        List<List<Future<Totals>>> scans = new ArrayList<List<Future<Totals>>>();
+        for (Future<RecordColumns> load : loads) {
+            RecordColumns cols = get(load);
+            List<Future<Totals>> chunks = new ArrayList<Future<Totals>>();
+            for (int lo = 0; lo < cols.size(); lo += CHUNK) {
+                chunks.add(pool.submit(fs.new Scan(cols, lo, Math.min(cols.size(), lo + CHUNK))));
+            }
+            scans.add(chunks);
+        }
+
+        for (int i = 0; i < serials.size(); i++) {
+            Totals t = new Totals();
+            for (Future<Totals> chunk : scans.get(i)) {
+                t.merge(get(chunk));
+            }
+            fs.devices.put(serials.get(i), t);
+            fs.fleet.merge(t);
+        }
+        return fs;
+    }
+
+    private static <T> T get(Future<T> f) throws IOException, InterruptedException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) {
+                throw (IOException) c;
+            }
+            throw new IllegalStateException(c);
+        }
+    }
+
+    public Totals fleet() {
+        return fleet;
+    }
+
+    public Totals device(int serial) {
+        return devices.get(serial);
+    }
+
+    public void print(PrintWriter pw) {
+        pw.printf("Fleet summary, %d devices, per %s:\n", devices.size(), period.name().toLowerCase());
+        pw.println("  Period          Dose, nSv    Time, h     nSv/h   Alarms   Max cps    Min V");
+        for (Map.Entry<Long, Bucket> e : fleet.buckets.entrySet()) {
+            Bucket b = e.getValue();
+            pw.printf("  %-12s %12d %10.1f %9.1f %8d %9d %8s\n",
+                    period.label(e.getKey()),
+                    b.dose, b.seconds / 3600.0D, b.rate(), b.alarms, b.maxGamma,
+                    (b.minVoltage == Integer.MAX_VALUE) ? "-" : String.format("%.2f", b.minVoltage / 100.0D));
+        }
+        pw.println();
+
+        for (Map.Entry<Integer, Totals> e : devices.entrySet()) {
+            Totals t = e.getValue();
+            pw.printf("  Serial No: %5d, %d nSv over %.1f h, %.1f nSv/h, %d alarms, battery %s\n",
+                    e.getKey(), t.dose(), t.seconds() / 3600.0D, t.rate(), t.alarms(),
+                    (t.trendCount < 2) ? "n/a" : String.format("%+.2f mV/day", t.batteryTrend() * 10));
+        }
+        pw.printf("  Total: %d nSv over %.1f h, %.1f nSv/h, %d alarms\n",
+                fleet.dose(), fleet.seconds() / 3600.0D, fleet.rate(), fleet.alarms());
+        pw.println();
+    }
+
+    private class Load implements Callable<RecordColumns> {
+        private final File file;
+
+        private Load(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public RecordColumns call() throws IOException {
+            RecordStore store = new RecordStore(file);
+            RecordColumns cols = new RecordColumns(Math.max(1, store.count()));
+            store.query(from, to, (byte) 0, cols);
+            return cols;
+        }
+    }
+
+    private class Scan implements Callable<Totals> {
+        private final RecordColumns cols;
+        private final int lo;
+        private final int hi;
+
+        private Scan(RecordColumns cols, int lo, int hi) {
+            this.cols = cols;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public Totals call() {
+            Totals t = new Totals();
+            long[] time = cols.epochSecond();
+
+            int[] dose = cols.dose();
+            short[] seconds = cols.seconds();
+            RecordColumns.Selection sel = cols.select((byte) 'D', from, to, lo, hi);
+            for (int i = 0; i < sel.count(); i++) {
+                int r = sel.row(i);
+                Bucket b = t.bucket(period.index(time[r]));
+                b.dose += dose[r];
+                b.seconds += seconds[r];
+            }
+
+            int[] maxGamma = cols.maxGamma();
+            sel = cols.select((byte) 'A', from, to, lo, hi);
+            for (int i = 0; i < sel.count(); i++) {
+                int r = sel.row(i);
+                Bucket b = t.bucket(period.index(time[r]));
+                b.alarms++;
+                b.maxGamma = Math.max(b.maxGamma, maxGamma[r]);
+            }
+
+            short[] voltage = cols.voltage();
+            sel = cols.select((byte) 0, from, to, lo, hi).where(voltage, 1, Short.MAX_VALUE);
+            for (int i = 0; i < sel.count(); i++) {
+                int r = sel.row(i);
+                Bucket b = t.bucket(period.index(time[r]));
+                b.minVoltage = Math.min(b.minVoltage, voltage[r]);
+                t.trend((time[r] - TREND_ORIGIN) / 86400.0D, voltage[r]);
+            }
+            return t;
+        }
+    }
+
+    /**
+     * Per-period buckets plus battery voltage regression sums.
+     */
+    public static class Totals {
+        private final TreeMap<Long, Bucket> buckets = new TreeMap<Long, Bucket>();
+        private long trendCount;
+        private double sumT, sumV, sumTT, sumTV;
+
+        private Bucket bucket(long index) {
+            Bucket b = buckets.get(index);
+            if (b == null) {
+                b = new Bucket();
+                buckets.put(index, b);
+            }
+            return b;
+        }
+
+        private void trend(double t, double v) {
+            trendCount++;
+            sumT += t;
+            sumV += v;
+            sumTT += t * t;
+            sumTV += t * v;
+        }
+
+        void merge(Totals o) {
+            for (Map.Entry<Long, Bucket> e : o.buckets.entrySet()) {
+                bucket(e.getKey()).merge(e.getValue());
+            }
+            trendCount += o.trendCount;
+            sumT += o.sumT;
+            sumV += o.sumV;
+            sumTT += o.sumTT;
+            sumTV += o.sumTV;
+        }
+
+        public long dose() {
+            long s = 0;
+            for (Bucket b : buckets.values()) {
+                s += b.dose;
+            }
+            return s;
+        }
+
+        public long seconds() {
+            long s = 0;
+            for (Bucket b : buckets.values()) {
+                s += b.seconds;
+            }
+            return s;
+        }
+
+        public int alarms() {
+            int s = 0;
+            for (Bucket b : buckets.values()) {
+                s += b.alarms;
+            }
+            return s;
+        }
+
+        public double rate() {
+            long secs = seconds();
+            return (secs == 0) ? 0 : dose() * 3600.0D / secs;
+        }
+
+        public int periods() {
+            return buckets.size();
+        }
+
+        /**
+         * Least-squares slope of battery voltage, in 1/100 V per day.
+         */
+        public double batteryTrend() {
+            double d = trendCount * sumTT - sumT * sumT;
+            return (d == 0) ? 0 : (trendCount * sumTV - sumT * sumV) / d;
+        }
+    }
+
+    private static class Bucket {
+        private long dose;
+        private long seconds;
+        private int alarms;
+        private int maxGamma;
+        private int minVoltage = Integer.MAX_VALUE;
+
+        private void merge(Bucket o) {
+            dose += o.dose;
+            seconds += o.seconds;
+            alarms += o.alarms;
+            maxGamma = Math.max(maxGamma, o.maxGamma);
+            minVoltage = Math.min(minVoltage, o.minVoltage);
+        }
+
+        private double rate() {
+            return (seconds == 0) ? 0 : dose * 3600.0D / seconds;
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the device stream in bulk into a single reusable buffer, and hands
+ * out fixed-size frames as views over that buffer.
+ *
+ * The returned {@link Frame} is the same instance for every call, and is only
+ * valid until the next read from this decoder; copy the data out with
+ * {@link Frame#toArray()} if it should outlive that.
+ */
+public class FrameDecoder {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final InputStream in;
+    private final byte[] scratch;
+    private final ByteBuffer buf;
+    private final Frame frame;
+    private int rp;
+    private int wp;
+
+    public FrameDecoder(InputStream in) {
+        this(in, DEFAULT_CAPACITY, false);
+    }
+
+    public FrameDecoder(InputStream in, int capacity, boolean direct) {
+        this.in = in;
+        if (direct) {
+            // not Channels.newChannel(): it spins while the stream returns 0,
+            // which is what RXTX does on timeout
+            this.buf = ByteBuffer.allocateDirect(capacity);
+            this.scratch = new byte[capacity];
+        } else {
+            this.buf = ByteBuffer.allocate(capacity);
+            this.scratch = null;
+        }
+        this.buf.order(ByteOrder.LITTLE_ENDIAN);
+        this.frame = new Frame(buf);
+    }
+
+    /**
+     * @return next byte, or -1 if nothing arrived within receive timeout
+     */
+    public int readByte() throws IOException {
+        if (rp == wp && fill() <= 0) {
+            return -1;
+        }
+        return buf.get(rp++) & 0xFF;
+    }
+
+    /**
+     * Reads the frame of given size.
+     * @throws IOException if frame was not complete within receive timeout
+     */
+    public Frame next(int size) throws IOException {
+        peek(0, size);
+        rp += size;
+        return frame;
+    }
+
+    /**
+     * Reads ahead the frame of given size, starting {@code skip} bytes from
+     * the current position, without consuming anything.
+     * @throws IOException if frame was not complete within receive timeout
+     */
+    public Frame peek(int skip, int size) throws IOException {
+        if (skip + size > buf.capacity()) {
+            throw new IllegalArgumentException("Frame size " + (skip + size) + " exceeds buffer capacity " + buf.capacity());
+        }
+        while (wp - rp < skip + size) {
+            if (fill() <= 0) {
+                throw new IOException("Unable to read byte " + (wp - rp + 1) + " of " + (skip + size));
+            }
+        }
+        frame.set(rp + skip, size);
+        return frame;
+    }
+
+    /**
+     * Consumes buffered bytes.
+     */
+    public void skip(int n) {
+        if (n > wp - rp) {
+            throw new IllegalArgumentException("Only " + (wp - rp) + " bytes buffered, cannot skip " + n);
+        }
+        rp += n;
+    }
+
+    /**
+     * @return number of bytes already buffered
+     */
+    public int buffered() {
+        return wp - rp;
+    }
+
+    /**
+     * Drops buffered bytes, along with whatever the stream can give
+     * without blocking.
+     * @return number of bytes dropped
+     */
+    public int skipAvailable() throws IOException {
+        int n = discard();
+        while (in.available() > 0) {
+            if (fill() <= 0) {
+                break;
+            }
+            n += discard();
+        }
+        return n;
+    }
+
+    /**
+     * Drops buffered bytes.
+     * @return number of bytes dropped
+     */
+    public int discard() {
+        int n = wp - rp;
+        rp = wp = 0;
+        return n;
+    }
+
+    private int fill() throws IOException {
+        if (rp == wp) {
+            rp = wp = 0;
+        } else if (wp == buf.capacity()) {
+            buf.limit(wp).position(rp);
+            buf.compact();
+            wp -= rp;
+            rp = 0;
+        }
+
+        int n;
+        if (scratch != null) {
+            n = in.read(scratch, 0, buf.capacity() - wp);
+            if (n > 0) {
+                buf.limit(buf.capacity()).position(wp);
+                buf.put(scratch, 0, n);
+            }
+        } else {
+            n = in.read(buf.array(), buf.arrayOffset() + wp, buf.capacity() - wp);
+        }
+
+        // RXTX returns 0 from bulk reads on timeout, -1 on single-byte reads
+        if (n > 0) {
+            wp += n;
+        }
+        return n;
+    }
+
+    public static class Frame {
+        private final ByteBuffer buf;
+        private int offset;
+        private int length;
+
+        private Frame(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        private void set(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public ByteBuffer buffer() {
+            return buf;
+        }
+
+        public int offset() {
+            return offset;
+        }
+
+        public byte get(int idx) {
+            return buf.get(offset + idx);
+        }
+
+        public short getShort(int idx) {
+            return buf.getShort(offset + idx);
+        }
+
+        public int getUnsignedShort(int idx) {
+            return buf.getShort(offset + idx) & 0xFFFF;
+        }
+
+        public int getInt(int idx) {
+            return buf.getInt(offset + idx);
+        }
+
+        public boolean isStop() {
+            for (int i = 0; i < length; i++) {
+                if (buf.get(offset + i) != (byte) 0xAA) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void copyTo(byte[] dst, int dstOffset) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = buf.get(offset + i);
+            }
+        }
+
+        public byte[] toArray() {
+            byte[] r = new byte[length];
+            copyTo(r, 0);
+            return r;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(buf.get(offset + i));
+            }
+            return sb.append("]").toString();
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic device health polls: battery, temperature and RTC, plus the
+ * settings block at a lower rate, reported with their queueing delays.
+ * RTC readings also feed the {@link SampleClock}.
+ */
+public class Housekeeping {
+
+    private static final int SETTINGS_EVERY = 10;
+
+    private final PrintWriter pw;
+    private final SampleClock clock;
+
+    public Housekeeping(PrintWriter pw, SampleClock clock) {
+        this.pw = pw;
+        this.clock = clock;
+    }
+
+    public void schedule(CommandScheduler scheduler, long period, TimeUnit unit) {
+        scheduler.every(new CommandScheduler.Request((byte) 'Y', 2, CommandScheduler.Priority.HIGH, new Reporter("battery") {
+            @Override
+            String report(FrameDecoder.Frame f) {
+                return String.format("%.2fV", f.getUnsignedShort(0) / 100f);
+            }
+        }), period, unit);
+
+        scheduler.every(new CommandScheduler.Request((byte) 'T', 2, CommandScheduler.Priority.NORMAL, new Reporter("temperature") {
+            @Override
+            String report(FrameDecoder.Frame f) {
+                return String.format("%.1fC", f.getShort(0) / 100f);
+            }
+        }), period, unit);
+
+        scheduler.every(new CommandScheduler.Request((byte) 'A', 6, CommandScheduler.Priority.NORMAL, new Reporter("RTC") {
+            @Override
+            String report(FrameDecoder.Frame f) {
+                clock.rtc(System.nanoTime(), DeviceTime.epochSecond(f.buffer(), f.offset()));
+                return String.format("%4d/%02d/%02d %02d:%02d:%02d, %+.1f s off, drift %+.1f ppm",
+                        2000 + f.get(0), f.get(1), f.get(2), f.get(3), f.get(4), f.get(5),
+                        clock.rtcOffset(), clock.rtcDriftPpm());
+            }
+        }), period, unit);
+
+        scheduler.every(new CommandScheduler.Request((byte) 'J', 31, CommandScheduler.Priority.LOW, new Reporter("settings") {
+            @Override
+            String report(FrameDecoder.Frame f) {
+                return String.format("battery %.1fV, temperature %.1fC", f.getShort(14) / 100f, f.getShort(12) / 100f);
+            }
+        }), period * SETTINGS_EVERY, unit);
+    }
+
+    private abstract class Reporter implements CommandScheduler.Handler {
+        private final String what;
+
+        private Reporter(String what) {
+            this.what = what;
+        }
+
+        abstract String report(FrameDecoder.Frame f);
+
+        // one println per report: PrintWriter locks only for a single call,
+        // and sample lines go to the same writer
+        @Override
+        public void onResponse(FrameDecoder.Frame response, long queueDelay) {
+            pw.println("  Housekeeping: " + what + " " + report(response) +
+                    " (queued " + TimeUnit.NANOSECONDS.toMillis(queueDelay) + " ms)");
+        }
+
+        @Override
+        public void onFailure(String reason, long queueDelay) {
+            pw.println("  Housekeeping: " + what + " failed: " + reason +
+                    " (queued " + TimeUnit.NANOSECONDS.toMillis(queueDelay) + " ms)");
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log2-bucketed latency histogram. Recording is meant for a single thread
+ * and does plain ordered stores, no CAS; readers may run concurrently and
+ * see slightly stale values. Percentiles are bucket upper bounds, so they
+ * are accurate within a factor of two.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int b = BUCKETS - Long.numberOfLeadingZeros(nanos);
+        buckets.lazySet(b, buckets.get(b) + 1);
+        count.lazySet(count.get() + 1);
+        sum.lazySet(sum.get() + nanos);
+        if (nanos > max.get()) {
+            max.lazySet(nanos);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long c = count.get();
+        return (c == 0) ? 0 : sum.get() / 1000.0 / c;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return percentile(0.50);
+    }
+
+    @Override
+    public double getP90Micros() {
+        return percentile(0.90);
+    }
+
+    @Override
+    public double getP99Micros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1000.0;
+    }
+
+    public double percentile(double p) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = buckets.get(b);
+            total += snapshot[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= rank) {
+                // bucket b holds values in [2^(b-1), 2^b)
+                long upper = (b == BUCKETS - 1) ? Long.MAX_VALUE : (1L << b);
+                return Math.min(upper, max.get()) / 1000.0;
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets.set(b, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d samples, mean %.0f us, p50 %.0f us, p99 %.0f us, max %.0f us",
+                getCount(), getMeanMicros(), getP50Micros(), getP99Micros(), getMaxMicros());
+    }
+
+}
@@ -0,0 +1,422 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Renders log records and live samples into one reusable {@link TextBuffer},
+ * one line per call: the dump layout, CSV, or JSON lines.
+ *
+ * Records describe themselves through {@link BaseReader.Record#format(TextBuffer)}
+ * for the dump layout, and through {@link BaseReader.Record#fields(LineFormatter)}
+ * for CSV and JSON, which calls back with the {@link RecordColumn}s it has, in
+ * column order. The serial number comes from the last log prologue, or from
+ * {@link #setSerial(int)}.
+ */
+public abstract class LineFormatter {
+
+    public enum RecordColumn {
+        SERIAL, TIME, TYPE,
+        /** Battery, volts. */
+        VOLTAGE,
+        /** Current drain, mA. */
+        CURRENT,
+        /** nSv. */
+        DOSE,
+        SECONDS,
+        /** Average dose rate, nSv/h. */
+        RATE,
+        /** cps. */
+        MAX_GAMMA,
+        /** nSv/h. */
+        MAX_DOSE,
+        FIRMWARE,
+        /** Bytes of unknown records, hex. */
+        RAW;
+
+        final String key = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final String[] SAMPLE_COLUMNS = {
+            "time", "duration", "gamma1", "gamma2", "gamma3", "neutron", "counts", "cps", "cpm"
+    };
+
+    protected final TextBuffer t = new TextBuffer();
+    protected final int[] windows;
+    protected final String[] windowKeys;
+    protected int serial = -1;
+
+    protected LineFormatter(int[] windows) {
+        this.windows = windows;
+        this.windowKeys = new String[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            windowKeys[i] = "cpm_" + windows[i] + "s";
+        }
+    }
+
+    /**
+     * CSV for "*.csv", JSON lines for "*.json" and "*.jsonl", the dump layout otherwise.
+     */
+    public static LineFormatter forFile(File file, int[] windows) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".csv")) {
+            return new Csv(windows);
+        }
+        if (name.endsWith(".json") || name.endsWith(".jsonl")) {
+            return new Json(windows);
+        }
+        return new Text(windows);
+    }
+
+    public void setSerial(int serial) {
+        this.serial = serial;
+    }
+
+    /**
+     * @return header line, or null if the format has none
+     */
+    public TextBuffer recordHeader() {
+        return null;
+    }
+
+    /**
+     * @return header line, or null if the format has none
+     */
+    public TextBuffer sampleHeader() {
+        return null;
+    }
+
+    /**
+     * @return the line, valid until the next call
+     */
+    public TextBuffer record(BaseReader.Record r) {
+        if (r instanceof BaseReader.PrologueRecord) {
+            serial = ((BaseReader.PrologueRecord) r).getSerial();
+        }
+        t.reset();
+        formatRecord(r);
+        return t.newLine();
+    }
+
+    /**
+     * @return the line, valid until the next call
+     */
+    public TextBuffer sample(LiveSample s) {
+        t.reset();
+        formatSample(s);
+        return t.newLine();
+    }
+
+    protected abstract void formatRecord(BaseReader.Record r);
+
+    protected abstract void formatSample(LiveSample s);
+
+    public abstract void field(RecordColumn c, long v);
+
+    /**
+     * Fixed-point value, see {@link TextBuffer#appendFixed(long, int)}.
+     */
+    public abstract void field(RecordColumn c, long scaled, int decimals);
+
+    public abstract void field(RecordColumn c, String v);
+
+    public abstract void field(RecordColumn c, char[] v, int off, int len);
+
+    /**
+     * Device timestamp from raw record bytes.
+     */
+    public abstract void time(RecordColumn c, ByteBuffer b, int off);
+
+    /**
+     * The layout of log dumps and the live console.
+     */
+    public static class Text extends LineFormatter {
+        public Text() {
+            this(BaseReader.LIVE_WINDOWS);
+        }
+
+        public Text(int[] windows) {
+            super(windows);
+        }
+
+        @Override
+        protected void formatRecord(BaseReader.Record r) {
+            t.append("  ");
+            r.format(t);
+        }
+
+        @Override
+        protected void formatSample(LiveSample s) {
+            t.append("  ").appendDate(s.time);
+            t.append(", ").append(s.counts(), 4).append(" counts, ");
+            t.append(s.cps(), 4).append(" cps, ");
+            t.append(s.cpmNow(), 6).append(" cpm");
+            for (int i = 0; i < windows.length; i++) {
+                t.append(", ").append(s.cpm[i], 6).append(" cpm (").append(windows[i]).append("s)");
+            }
+            if (s.gammaAlarm) {
+                t.append(", GAMMA ALARM");
+            }
+            if (s.neutronAlarm) {
+                t.append(", NEUTRON ALARM");
+            }
+        }
+
+        @Override
+        public void field(RecordColumn c, long v) {
+            // text goes through Record.format()
+        }
+
+        @Override
+        public void field(RecordColumn c, long scaled, int decimals) {
+            // text goes through Record.format()
+        }
+
+        @Override
+        public void field(RecordColumn c, String v) {
+            // text goes through Record.format()
+        }
+
+        @Override
+        public void field(RecordColumn c, char[] v, int off, int len) {
+            // text goes through Record.format()
+        }
+
+        @Override
+        public void time(RecordColumn c, ByteBuffer b, int off) {
+            // text goes through Record.format()
+        }
+    }
+
+    /**
+     * Fixed columns, cells a record does not have are left empty.
+     */
+    public static class Csv extends LineFormatter {
+        private static final RecordColumn[] COLUMNS = RecordColumn.values();
+
+        private final TextBuffer recordHeader = new TextBuffer();
+        private final TextBuffer sampleHeader = new TextBuffer();
+        private int next;
+
+        public Csv(int[] windows) {
+            super(windows);
+            for (RecordColumn c : COLUMNS) {
+                if (c.ordinal() > 0) {
+                    recordHeader.append(',');
+                }
+                recordHeader.append(c.key);
+            }
+            recordHeader.newLine();
+
+            for (int i = 0; i < SAMPLE_COLUMNS.length; i++) {
+                if (i > 0) {
+                    sampleHeader.append(',');
+                }
+                sampleHeader.append(SAMPLE_COLUMNS[i]);
+            }
+            for (String k : windowKeys) {
+                sampleHeader.append(',').append(k);
+            }
+            sampleHeader.append(",gamma_alarm,neutron_alarm").newLine();
+        }
+
+        @Override
+        public TextBuffer recordHeader() {
+            return recordHeader;
+        }
+
+        @Override
+        public TextBuffer sampleHeader() {
+            return sampleHeader;
+        }
+
+        @Override
+        protected void formatRecord(BaseReader.Record r) {
+            next = 0;
+            if (serial >= 0) {
+                field(RecordColumn.SERIAL, serial);
+            }
+            r.fields(this);
+            skipTo(COLUMNS.length);
+        }
+
+        private void skipTo(int column) {
+            while (next < column) {
+                if (next > 0) {
+                    t.append(',');
+                }
+                next++;
+            }
+        }
+
+        private void cell(RecordColumn c) {
+            skipTo(c.ordinal());
+            if (next > 0) {
+                t.append(',');
+            }
+            next++;
+        }
+
+        @Override
+        public void field(RecordColumn c, long v) {
+            cell(c);
+            t.append(v);
+        }
+
+        @Override
+        public void field(RecordColumn c, long scaled, int decimals) {
+            cell(c);
+            t.appendFixed(scaled, decimals);
+        }
+
+        @Override
+        public void field(RecordColumn c, String v) {
+            cell(c);
+            t.appendCsv(v);
+        }
+
+        @Override
+        public void field(RecordColumn c, char[] v, int off, int len) {
+            cell(c);
+            t.appendCsv(v, off, len);
+        }
+
+        @Override
+        public void time(RecordColumn c, ByteBuffer b, int off) {
+            cell(c);
+            t.appendDeviceTime(b, off, '-', 'T');
+        }
+
+        @Override
+        protected void formatSample(LiveSample s) {
+            t.appendIsoTime(s.time).append(',');
+            t.append(s.duration).append(',');
+            t.append(s.gamma1).append(',');
+            t.append(s.gamma2).append(',');
+            t.append(s.gamma3).append(',');
+            t.append(s.neutron).append(',');
+            t.append(s.counts()).append(',');
+            t.append(s.cps()).append(',');
+            t.append(s.cpmNow());
+            for (int i = 0; i < windows.length; i++) {
+                t.append(',').append(s.cpm[i]);
+            }
+            t.append(',').append(s.gammaAlarm ? "true" : "false");
+            t.append(',').append(s.neutronAlarm ? "true" : "false");
+        }
+    }
+
+    /**
+     * One object per line, only with the fields the record has.
+     */
+    public static class Json extends LineFormatter {
+        private boolean first;
+
+        public Json(int[] windows) {
+            super(windows);
+        }
+
+        @Override
+        protected void formatRecord(BaseReader.Record r) {
+            t.append('{');
+            first = true;
+            if (serial >= 0) {
+                field(RecordColumn.SERIAL, serial);
+            }
+            r.fields(this);
+            t.append('}');
+        }
+
+        private void key(String k) {
+            if (!first) {
+                t.append(',');
+            }
+            first = false;
+            t.append('"').append(k).append("\":");
+        }
+
+        @Override
+        public void field(RecordColumn c, long v) {
+            key(c.key);
+            t.append(v);
+        }
+
+        @Override
+        public void field(RecordColumn c, long scaled, int decimals) {
+            key(c.key);
+            t.appendFixed(scaled, decimals);
+        }
+
+        @Override
+        public void field(RecordColumn c, String v) {
+            key(c.key);
+            t.appendJson(v);
+        }
+
+        @Override
+        public void field(RecordColumn c, char[] v, int off, int len) {
+            key(c.key);
+            t.appendJson(v, off, len);
+        }
+
+        @Override
+        public void time(RecordColumn c, ByteBuffer b, int off) {
+            key(c.key);
+            t.append('"').appendDeviceTime(b, off, '-', 'T').append('"');
+        }
+
+        @Override
+        protected void formatSample(LiveSample s) {
+            t.append('{');
+            first = true;
+            key(SAMPLE_COLUMNS[0]);
+            t.append('"').appendIsoTime(s.time).append('"');
+            key(SAMPLE_COLUMNS[1]);
+            t.append(s.duration);
+            key(SAMPLE_COLUMNS[2]);
+            t.append(s.gamma1);
+            key(SAMPLE_COLUMNS[3]);
+            t.append(s.gamma2);
+            key(SAMPLE_COLUMNS[4]);
+            t.append(s.gamma3);
+            key(SAMPLE_COLUMNS[5]);
+            t.append(s.neutron);
+            key(SAMPLE_COLUMNS[6]);
+            t.append(s.counts());
+            key(SAMPLE_COLUMNS[7]);
+            t.append(s.cps());
+            key(SAMPLE_COLUMNS[8]);
+            t.append(s.cpmNow());
+            for (int i = 0; i < windows.length; i++) {
+                key(windowKeys[i]);
+                t.append(s.cpm[i]);
+            }
+            key("gamma_alarm");
+            t.append(s.gammaAlarm ? "true" : "false");
+            key("neutron_alarm");
+            t.append(s.neutronAlarm ? "true" : "false");
+            t.append('}');
+        }
+    }
+
+}
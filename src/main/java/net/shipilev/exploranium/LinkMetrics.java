@@ -0,0 +1,269 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serial link health for one device: traffic, framing failures, and
+ * latency of every protocol exchange.
+ *
+ * Published over JMX as "net.shipilev.exploranium:type=Link,port=..." with
+ * one "type=Latency,exchange=..." bean per exchange kind. Counters are
+ * updated by the session thread only.
+ */
+public class LinkMetrics implements LinkMetricsMBean {
+
+    public static final String DOMAIN = "net.shipilev.exploranium";
+
+    /** Command to 0xAA acknowledge. */
+    public final LatencyHistogram ack = new LatencyHistogram();
+
+    /** 'C' to 8-byte counters frame, includes device integration time. */
+    public final LatencyHistogram counters = new LatencyHistogram();
+
+    /** Between consecutive 4-byte spectrum groups, includes dwell time. */
+    public final LatencyHistogram spectrumGroup = new LatencyHistogram();
+
+    /** Between consecutive 16-byte log frames. */
+    public final LatencyHistogram logFrame = new LatencyHistogram();
+
+    /** 'J' to the complete settings block. */
+    public final LatencyHistogram settings = new LatencyHistogram();
+
+    /** Scheduled request send to complete response. */
+    public final LatencyHistogram request = new LatencyHistogram();
+
+    /** Scheduled request becoming due to being sent. */
+    public final LatencyHistogram queueDelay = new LatencyHistogram();
+
+    private final String port;
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong headerMismatches = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong staleBytes = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    private long lastFrames;
+    private long lastPoll = System.nanoTime();
+
+    public LinkMetrics(String port) {
+        this.port = port;
+    }
+
+    /**
+     * Registers with the platform MBean server. Failures are not fatal,
+     * the device is still usable without monitoring.
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String quoted = ObjectName.quote(port);
+        try {
+            register(server, new ObjectName(DOMAIN + ":type=Link,port=" + quoted), this);
+            register(server, latencyName(quoted, "ack"), ack);
+            register(server, latencyName(quoted, "counters"), counters);
+            register(server, latencyName(quoted, "spectrumGroup"), spectrumGroup);
+            register(server, latencyName(quoted, "logFrame"), logFrame);
+            register(server, latencyName(quoted, "settings"), settings);
+            register(server, latencyName(quoted, "request"), request);
+            register(server, latencyName(quoted, "queue"), queueDelay);
+        } catch (JMException e) {
+            // leave whatever got registered, unregister() cleans it up
+        }
+    }
+
+    private static ObjectName latencyName(String quotedPort, String exchange) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Latency,port=" + quotedPort + ",exchange=" + exchange);
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(bean, name);
+        registered.add(name);
+    }
+
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int r = super.read();
+                if (r == -1) {
+                    increment(timeouts);
+                } else {
+                    increment(bytesIn);
+                }
+                return r;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int r = super.read(b, off, len);
+                // RXTX returns 0 from bulk reads on timeout
+                if (r <= 0 && len > 0) {
+                    increment(timeouts);
+                } else {
+                    bytesIn.lazySet(bytesIn.get() + r);
+                }
+                return r;
+            }
+        };
+    }
+
+    public OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                increment(bytesOut);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesOut.lazySet(bytesOut.get() + len);
+            }
+        };
+    }
+
+    private static void increment(AtomicLong v) {
+        v.lazySet(v.get() + 1);
+    }
+
+    public void frame() {
+        increment(frames);
+    }
+
+    public void headerMismatch() {
+        increment(headerMismatches);
+    }
+
+    public void staleBytes(int count) {
+        staleBytes.lazySet(staleBytes.get() + count);
+    }
+
+    public void resync(int times, long skipped) {
+        resyncs.lazySet(resyncs.get() + times);
+        skippedBytes.lazySet(skippedBytes.get() + skipped);
+    }
+
+    @Override
+    public String getPort() {
+        return port;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.get();
+    }
+
+    @Override
+    public synchronized double getFramesPerSecond() {
+        long now = System.nanoTime();
+        long f = frames.get();
+        double rate = (now == lastPoll) ? 0 : (f - lastFrames) * 1e9 / (now - lastPoll);
+        lastFrames = f;
+        lastPoll = now;
+        return rate;
+    }
+
+    @Override
+    public long getHeaderMismatches() {
+        return headerMismatches.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getStaleBytes() {
+        return staleBytes.get();
+    }
+
+    @Override
+    public long getResyncs() {
+        return resyncs.get();
+    }
+
+    @Override
+    public long getSkippedBytes() {
+        return skippedBytes.get();
+    }
+
+    @Override
+    public void reset() {
+        bytesIn.set(0);
+        bytesOut.set(0);
+        frames.set(0);
+        headerMismatches.set(0);
+        timeouts.set(0);
+        staleBytes.set(0);
+        resyncs.set(0);
+        skippedBytes.set(0);
+        ack.reset();
+        counters.reset();
+        spectrumGroup.reset();
+        logFrame.reset();
+        settings.reset();
+        request.reset();
+        queueDelay.reset();
+    }
+
+}
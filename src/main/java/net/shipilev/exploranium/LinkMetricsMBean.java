@@ -0,0 +1,49 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+public interface LinkMetricsMBean {
+
+    String getPort();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getFrames();
+
+    /** Frames per second since the previous call. */
+    double getFramesPerSecond();
+
+    long getHeaderMismatches();
+
+    long getTimeouts();
+
+    long getStaleBytes();
+
+    /** Times the host had to find its place in the stream again. */
+    long getResyncs();
+
+    /** Bytes dropped while resynchronizing. */
+    long getSkippedBytes();
+
+    void reset();
+
+}
@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presentation stage of live mode. Acquisition thread offers samples, the
+ * pipeline thread hands them to listeners; slow listeners cause dropped
+ * samples, not delays between device measurements.
+ */
+public class LivePipeline implements Runnable {
+
+    private static final int CAPACITY = 1024;
+
+    private final SampleQueue queue;
+    private final SampleListener[] listeners;
+    private final LiveSample current;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public LivePipeline(int windows, SampleListener... listeners) {
+        this.queue = new SampleQueue(CAPACITY, windows);
+        this.listeners = listeners;
+        this.current = new LiveSample(windows);
+        this.thread = new Thread(this, "live-output");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public boolean offer(LiveSample s) {
+        return queue.offer(s);
+    }
+
+    @Override
+    public void run() {
+        long reported = 0;
+        while (running || !queue.isEmpty()) {
+            if (queue.poll(current, TimeUnit.MILLISECONDS.toNanos(100))) {
+                for (SampleListener l : listeners) {
+                    l.onSample(current);
+                }
+            }
+
+            long dropped = queue.dropped();
+            if (dropped != reported) {
+                for (SampleListener l : listeners) {
+                    l.onDropped(dropped - reported);
+                }
+                reported = dropped;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting samples, and waits for the queued ones to be delivered.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+    }
+
+}
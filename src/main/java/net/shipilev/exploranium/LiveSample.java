@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+/**
+ * Mutable holder for one live counter reading.
+ * Instances are recycled through {@link SampleQueue}, copy the fields out
+ * if they should outlive the callback.
+ */
+public class LiveSample {
+    /** Wall-clock time of frame completion, milliseconds. */
+    public long time;
+
+    /** Measurement duration, milliseconds. */
+    public long duration;
+
+    public int gamma1;
+    public int gamma2;
+    public int gamma3;
+    public int neutron;
+
+    /** Decisions of {@link ChangeDetector} as of this sample. */
+    public boolean gammaAlarm;
+    public boolean neutronAlarm;
+
+    /** Moving averages, counts per minute, one per window. */
+    public final long[] cpm;
+
+    public LiveSample(int windows) {
+        this.cpm = new long[windows];
+    }
+
+    public int counts() {
+        return gamma1 + gamma2 + gamma3;
+    }
+
+    public long cps() {
+        return (duration == 0) ? 0 : counts() * 1000L / duration;
+    }
+
+    public long cpmNow() {
+        return (duration == 0) ? 0 : 60 * (counts() * 1000L) / duration;
+    }
+
+    public void copyFrom(LiveSample o) {
+        time = o.time;
+        duration = o.duration;
+        gamma1 = o.gamma1;
+        gamma2 = o.gamma2;
+        gamma3 = o.gamma3;
+        neutron = o.neutron;
+        gammaAlarm = o.gammaAlarm;
+        neutronAlarm = o.neutronAlarm;
+        System.arraycopy(o.cpm, 0, cpm, 0, cpm.length);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Local HTTP endpoint for live readings.
+ *
+ * Every device publishes {@link LiveSnapshot}s into its own slot from the
+ * live pipeline thread. Request threads only read the slots, so there is
+ * no lock shared with acquisition, and any number of clients only cost
+ * server threads. Serves "/live.json" and Prometheus "/metrics".
+ */
+public class LiveServer {
+
+    private static final int THREADS = 4;
+    private static final Map<Integer, LiveServer> SERVERS = new HashMap<Integer, LiveServer>();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, AtomicReference<LiveSnapshot>> slots =
+            new ConcurrentHashMap<String, AtomicReference<LiveSnapshot>>();
+
+    /**
+     * Server for the given local port, shared by all devices in this process.
+     */
+    public static synchronized LiveServer shared(int port) throws IOException {
+        LiveServer s = SERVERS.get(port);
+        if (s == null) {
+            s = new LiveServer(port);
+            SERVERS.put(port, s);
+        }
+        return s;
+    }
+
+    public LiveServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "live-http-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/live.json", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                respond(ex, "application/json", json());
+            }
+        });
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                respond(ex, "text/plain; version=0.0.4", prometheus());
+            }
+        });
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Listener that publishes samples of the given device.
+     */
+    public SampleListener publisher(final String device, final int[] windows) {
+        final AtomicReference<LiveSnapshot> slot = new AtomicReference<LiveSnapshot>();
+        slots.put(device, slot);
+        return new SampleListener() {
+            private long sequence;
+
+            @Override
+            public void onSample(LiveSample s) {
+                slot.set(new LiveSnapshot(device, ++sequence, s, windows));
+            }
+
+            @Override
+            public void onDropped(long count) {
+                // sequence numbers only count published samples
+            }
+        };
+    }
+
+    public LiveSnapshot get(String device) {
+        AtomicReference<LiveSnapshot> slot = slots.get(device);
+        return (slot == null) ? null : slot.get();
+    }
+
+    String json() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"devices\":[");
+        boolean first = true;
+        for (AtomicReference<LiveSnapshot> slot : slots.values()) {
+            LiveSnapshot s = slot.get();
+            if (s == null) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(s.toJson());
+            first = false;
+        }
+        sb.append("]}\n");
+        return sb.toString();
+    }
+
+    String prometheus() {
+        LiveSnapshot[] snapshots = new LiveSnapshot[slots.size()];
+        int n = 0;
+        for (AtomicReference<LiveSnapshot> slot : slots.values()) {
+            LiveSnapshot s = slot.get();
+            if (s != null && n < snapshots.length) {
+                snapshots[n++] = s;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int f = 0; f < LiveSnapshot.FAMILIES.length; f++) {
+            String[] family = LiveSnapshot.FAMILIES[f];
+            sb.append("# HELP ").append(family[0]).append(' ').append(family[2]).append('\n');
+            sb.append("# TYPE ").append(family[0]).append(' ').append(family[1]).append('\n');
+            for (int i = 0; i < n; i++) {
+                sb.append(snapshots[i].prometheus(f));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void respond(HttpExchange ex, String type, String body) throws IOException {
+        try {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes("UTF-8");
+            ex.getResponseHeaders().set("Content-Type", type);
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            ex.sendResponseHeaders(200, bytes.length);
+            OutputStream os = ex.getResponseBody();
+            os.write(bytes);
+            os.close();
+        } finally {
+            ex.close();
+        }
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+/**
+ * Immutable copy of one live reading, with its JSON and Prometheus forms
+ * rendered once, at publication. Readers only ever see complete snapshots.
+ */
+public final class LiveSnapshot {
+
+    /** Prometheus metric families, in rendering order. */
+    static final String[][] FAMILIES = {
+            {"gr100_samples_total", "counter", "Live samples acquired."},
+            {"gr100_sample_timestamp_seconds", "gauge", "Wall-clock time of the last sample."},
+            {"gr100_sample_duration_seconds", "gauge", "Measurement time of the last sample."},
+            {"gr100_gamma_counts", "gauge", "Gamma counts in the last sample, per channel."},
+            {"gr100_neutron_counts", "gauge", "Neutron counts in the last sample."},
+            {"gr100_cps", "gauge", "Gamma counts per second in the last sample."},
+            {"gr100_cpm", "gauge", "Gamma counts per minute, moving average over the window."},
+            {"gr100_alarm", "gauge", "Host-side rate change alarm, 1 when raised, per channel."},
+    };
+
+    private final String port;
+    private final long sequence;
+    private final long time;
+    private final long duration;
+    private final int gamma1;
+    private final int gamma2;
+    private final int gamma3;
+    private final int neutron;
+    private final long cps;
+    private final long cpmNow;
+    private final long[] cpm;
+    private final boolean gammaAlarm;
+    private final boolean neutronAlarm;
+    private final int[] windows;
+
+    private final String json;
+    private final String[] prometheus;
+
+    public LiveSnapshot(String port, long sequence, LiveSample s, int[] windows) {
+        this.port = port;
+        this.sequence = sequence;
+        this.time = s.time;
+        this.duration = s.duration;
+        this.gamma1 = s.gamma1;
+        this.gamma2 = s.gamma2;
+        this.gamma3 = s.gamma3;
+        this.neutron = s.neutron;
+        this.cps = s.cps();
+        this.cpmNow = s.cpmNow();
+        this.cpm = s.cpm.clone();
+        this.gammaAlarm = s.gammaAlarm;
+        this.neutronAlarm = s.neutronAlarm;
+        this.windows = windows;
+        this.json = renderJson();
+        this.prometheus = renderPrometheus();
+    }
+
+    public String getPort() {
+        return port;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getCps() {
+        return cps;
+    }
+
+    public long getCpm(int window) {
+        return cpm[window];
+    }
+
+    public String toJson() {
+        return json;
+    }
+
+    /**
+     * Sample lines of the given family from {@link #FAMILIES}.
+     */
+    public String prometheus(int family) {
+        return prometheus[family];
+    }
+
+    private String renderJson() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"port\":\"");
+        escape(sb, port);
+        sb.append("\",\"seq\":").append(sequence);
+        sb.append(",\"time\":").append(time);
+        sb.append(",\"duration\":").append(duration);
+        sb.append(",\"gamma\":[").append(gamma1).append(',').append(gamma2).append(',').append(gamma3).append(']');
+        sb.append(",\"neutron\":").append(neutron);
+        sb.append(",\"counts\":").append(gamma1 + gamma2 + gamma3);
+        sb.append(",\"cps\":").append(cps);
+        sb.append(",\"cpm\":").append(cpmNow);
+        for (int w = 0; w < windows.length; w++) {
+            sb.append(",\"cpm").append(windows[w]).append("s\":").append(cpm[w]);
+        }
+        sb.append(",\"gammaAlarm\":").append(gammaAlarm);
+        sb.append(",\"neutronAlarm\":").append(neutronAlarm);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private String[] renderPrometheus() {
+        String label = "port=\"" + escape(new StringBuilder(), port) + "\"";
+        String[] r = new String[FAMILIES.length];
+
+        r[0] = FAMILIES[0][0] + "{" + label + "} " + sequence + "\n";
+        r[1] = FAMILIES[1][0] + "{" + label + "} " + (time / 1000.0) + "\n";
+        r[2] = FAMILIES[2][0] + "{" + label + "} " + (duration / 1000.0) + "\n";
+        r[3] = FAMILIES[3][0] + "{" + label + ",channel=\"1\"} " + gamma1 + "\n" +
+               FAMILIES[3][0] + "{" + label + ",channel=\"2\"} " + gamma2 + "\n" +
+               FAMILIES[3][0] + "{" + label + ",channel=\"3\"} " + gamma3 + "\n";
+        r[4] = FAMILIES[4][0] + "{" + label + "} " + neutron + "\n";
+        r[5] = FAMILIES[5][0] + "{" + label + "} " + cps + "\n";
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(FAMILIES[6][0]).append('{').append(label).append(",window=\"now\"} ").append(cpmNow).append('\n');
+        for (int w = 0; w < windows.length; w++) {
+            sb.append(FAMILIES[6][0]).append('{').append(label).append(",window=\"").append(windows[w]).append("s\"} ").append(cpm[w]).append('\n');
+        }
+        r[6] = sb.toString();
+        r[7] = FAMILIES[7][0] + "{" + label + ",channel=\"gamma\"} " + (gammaAlarm ? 1 : 0) + "\n" +
+               FAMILIES[7][0] + "{" + label + ",channel=\"neutron\"} " + (neutronAlarm ? 1 : 0) + "\n";
+        return r;
+    }
+
+    private static StringBuilder escape(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.IOException;
+
+/**
+ * Cuts the log download into 16-byte records, recovering from lost or
+ * spurious bytes on the line.
+ *
+ * Every record should carry a known opcode in the last byte and a sane
+ * timestamp. When it does not, the following bytes are searched for an
+ * offset where a plausible record starts and is followed by another plausible
+ * record or the stop frame; the bytes before it are dropped. If no offset
+ * fits, the record is passed as is: it may be some record we do not know. A
+ * stop frame cut short by a lost byte is recognized when the line goes quiet.
+ */
+public class LogFramer {
+
+    public static final int RECORD_SIZE = 16;
+
+    private final FrameDecoder in;
+    private int resyncs;
+    private long skipped;
+
+    public LogFramer(FrameDecoder in) {
+        this.in = in;
+    }
+
+    /**
+     * @return next record, valid until the next read; null at the stop frame
+     * @throws IOException if the line went quiet before the stop frame
+     */
+    public FrameDecoder.Frame next() throws IOException {
+        while (true) {
+            FrameDecoder.Frame f;
+            try {
+                f = in.peek(0, RECORD_SIZE);
+            } catch (IOException e) {
+                if (isTruncatedStop()) {
+                    skipped += in.discard();
+                    return null;
+                }
+                throw e;
+            }
+
+            if (f.isStop()) {
+                in.skip(RECORD_SIZE);
+                return null;
+            }
+
+            if (!isPlausible(f)) {
+                int shift = realign();
+                if (shift > 0) {
+                    resyncs++;
+                    skipped += shift;
+                    in.skip(shift);
+                    continue;
+                }
+                f = in.peek(0, RECORD_SIZE);
+            }
+
+            in.skip(RECORD_SIZE);
+            return f;
+        }
+    }
+
+    public int getResyncs() {
+        return resyncs;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    private boolean isTruncatedStop() throws IOException {
+        int n = in.buffered();
+        if (n == 0) {
+            return false;
+        }
+        FrameDecoder.Frame tail = in.peek(0, n);
+        return tail.isStop();
+    }
+
+    /**
+     * @return offset of the next plausible record, or 0 if there is none
+     */
+    private int realign() {
+        for (int k = 1; k < RECORD_SIZE; k++) {
+            FrameDecoder.Frame c;
+            try {
+                c = in.peek(k, RECORD_SIZE);
+            } catch (IOException e) {
+                return 0;
+            }
+            if (c.isStop()) {
+                return k;
+            }
+            if (!isPlausible(c)) {
+                continue;
+            }
+
+            try {
+                FrameDecoder.Frame n = in.peek(k + RECORD_SIZE, RECORD_SIZE);
+                if (n.isStop() || isPlausible(n)) {
+                    return k;
+                }
+            } catch (IOException e) {
+                // nothing follows, trust the candidate
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    static boolean isPlausible(FrameDecoder.Frame f) {
+        switch (f.get(15)) {
+            case 0x30:
+            case 0x31:
+                return isPlausibleDate(f, 4);
+            case 'P':
+            case 'S':
+            case 'T':
+            case 'W':
+            case 'B':
+            case 'A':
+            case 'D':
+                return isPlausibleDate(f, 0);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isPlausibleDate(FrameDecoder.Frame f, int off) {
+        return in(f.get(off), 0, 99) &&
+                in(f.get(off + 1), 1, 12) &&
+                in(f.get(off + 2), 1, 31) &&
+                in(f.get(off + 3), 0, 23) &&
+                in(f.get(off + 4), 0, 59) &&
+                in(f.get(off + 5), 0, 59);
+    }
+
+    private static boolean in(byte v, int min, int max) {
+        return v >= min && v <= max;
+    }
+
+}
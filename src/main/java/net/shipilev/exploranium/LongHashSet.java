@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+/**
+ * Open-addressing set of primitive longs, 8 bytes per slot.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    private long[] slots;
+    private int size;
+    private boolean hasEmptyKey;
+
+    public LongHashSet(int expected) {
+        int cap = 16;
+        while (cap < expected * 2) {
+            cap <<= 1;
+        }
+        slots = new long[cap];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        }
+        int mask = slots.length - 1;
+        int idx = (int) mix(key) & mask;
+        while (true) {
+            long s = slots[idx];
+            if (s == EMPTY) {
+                return false;
+            }
+            if (s == key) {
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    /**
+     * @return true if key was not present before
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (hasEmptyKey) {
+                return false;
+            }
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+
+        if ((size + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+
+        int mask = slots.length - 1;
+        int idx = (int) mix(key) & mask;
+        while (true) {
+            long s = slots[idx];
+            if (s == EMPTY) {
+                slots[idx] = key;
+                size++;
+                return true;
+            }
+            if (s == key) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        slots = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : old) {
+            if (key != EMPTY) {
+                int idx = (int) mix(key) & mask;
+                while (slots[idx] != EMPTY) {
+                    idx = (idx + 1) & mask;
+                }
+                slots[idx] = key;
+            }
+        }
+    }
+
+    static long mix(long z) {
+        // MurmurHash3 finalizer
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+}
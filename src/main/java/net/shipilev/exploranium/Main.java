@@ -25,11 +25,23 @@ import gnu.io.UnsupportedCommOperationException;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Main {
 
-    public static void main(String[] args) throws IOException, NoSuchPortException, UnsupportedCommOperationException, PortInUseException {
-        PrintWriter pw = new PrintWriter(System.out, true);
+    private static final int FLUSH_INTERVAL = 100;
+    private static final long LOG_ROTATE_SIZE = 16 * 1024 * 1024;
+    private static final int LOG_ROTATE_KEEP = 5;
+
+    public static void main(String[] args) throws IOException, NoSuchPortException, UnsupportedCommOperationException, PortInUseException, InterruptedException {
+        AsyncOutput out = new AsyncOutput(FLUSH_INTERVAL, new OutputSinks.ConsoleSink(System.out));
+        PrintWriter pw = new PrintWriter(out, true);
 
         pw.println("Exploranium GR-100 Control Software.");
         pw.println("  This is the free software. Bug reports, feedbacks and suggestions");
@@ -49,33 +61,233 @@ public class Main {
             System.exit(1);
         }
 
-        BaseReader reader = new BaseReader(opts, pw);
+        // live lines may be dropped rather than delay the device, the rest waits
+        out.setLossy(opts.shouldLiveStream());
+
+        if (opts.getOutputFile() != null) {
+            out.addSink(new OutputSinks.RotatingFileSink(opts.getOutputFile(), LOG_ROTATE_SIZE, LOG_ROTATE_KEEP));
+        }
+
+        if (opts.isOffline()) {
+            try {
+                serveArchive(opts, pw);
+            } finally {
+                pw.close();
+            }
+            return;
+        }
+
+        if (opts.getPorts().size() > 1) {
+            try {
+                new MultiReader(opts, pw).run();
+            } finally {
+                pw.close();
+            }
+            return;
+        }
+
+        BaseReader reader = null;
         try {
-            if (opts.shouldGatherSpectrum()) {
-                reader.gatherSpectrum();
-                return;
+            reader = new BaseReader(opts, pw);
+            execute(reader, opts);
+        } finally {
+            if (reader != null) {
+                reader.close();
             }
-            if (opts.shouldLiveStream()) {
-                reader.liveStream();
-                return;
+            pw.close();
+        }
+
+    }
+
+    private static void serveArchive(Options opts, PrintWriter pw) throws IOException, InterruptedException {
+        RecordArchive archive = new RecordArchive(opts.getArchiveDir());
+
+        List<Integer> serials = (opts.getSerial() != null) ?
+                Collections.singletonList(opts.getSerial()) :
+                archive.serials();
+
+        TextExport export = (opts.getFormatFile() != null) ?
+                new TextExport(opts.getFormatFile(), BaseReader.LIVE_WINDOWS) : null;
+        try {
+            for (int serial : serials) {
+                RecordStore store = new RecordStore(archive.fileFor(serial));
+                long from = opts.getRangeFrom();
+                long to = opts.getRangeTo();
+                int inRange = store.query(from, to, (byte) 0, new RecordStore.Visitor() {
+                    @Override
+                    public void visit(ByteBuffer buf, int offset) {
+                        // count only
+                    }
+                });
+                pw.printf("Archived device, Serial No: %5d, %d records, %d in range\n", serial, store.count(), inRange);
+                pw.println();
+
+                if (opts.shouldDumpInfo()) {
+                    pw.println("Diagnostic log:");
+                    printArchived(pw, store, from, to, (byte) 0, RecordFilter.DIAGNOSTIC);
+                }
+                if (opts.shouldDumpAlarms()) {
+                    pw.println("Alarm log:");
+                    printArchived(pw, store, from, to, (byte) 'A', RecordFilter.ALARM);
+                }
+                if (opts.shouldDumpDose()) {
+                    pw.println("Accumulated dose log:");
+                    printArchived(pw, store, from, to, (byte) 'D', RecordFilter.DOSE);
+                }
+                if (opts.shouldSummarize()) {
+                    RecordColumns cols = new RecordColumns(inRange);
+                    store.query(from, to, (byte) 0, cols);
+                    BaseReader.printSummary(pw, cols);
+                }
+                if (export != null) {
+                    export.setSerial(serial);
+                    queryArchived(store, from, to, exportSink(recordFilters(opts), export));
+                }
             }
-            if (opts.shouldDumpSettings()) {
-                reader.dumpSettings();
+        } finally {
+            if (export != null) {
+                export.close();
             }
-            if (opts.shouldDumpInfo()) {
-                reader.dumpDiagnostic();
+        }
+
+        if (opts.getSummaryPeriod() != null) {
+            ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                FleetSummary.compute(archive, serials, opts.getRangeFrom(), opts.getRangeTo(), opts.getSummaryPeriod(), pool)
+                        .print(pw);
+            } finally {
+                pool.shutdown();
             }
-            if (opts.shouldDumpAlarms()) {
-                reader.dumpAlarms();
+        }
+    }
+
+    /**
+     * Prints archived records in range in the dump layout, straight from the mapped store.
+     */
+    private static void printArchived(final PrintWriter pw, RecordStore store, long from, long to, byte opcode, final RecordFilter filter) {
+        final LineFormatter text = new LineFormatter.Text();
+        final BaseReader.RecordViews views = new BaseReader.RecordViews();
+        store.query(from, to, opcode, new RecordStore.Visitor() {
+            @Override
+            public void visit(ByteBuffer buf, int offset) {
+                BaseReader.Record r = views.wrap(buf, offset);
+                if (filter.accepts(r)) {
+                    text.record(r).writeTo(pw);
+                }
             }
-            if (opts.shouldDumpDose()) {
-                reader.dumpDose();
+        });
+        pw.println();
+    }
+
+    /**
+     * Passes archived records in range to the sink, straight from the mapped store.
+     */
+    private static void queryArchived(RecordStore store, long from, long to, final RecordSink sink) throws IOException {
+        final BaseReader.RecordViews views = new BaseReader.RecordViews();
+        final IOException[] failure = new IOException[1];
+        store.query(from, to, (byte) 0, new RecordStore.Visitor() {
+            @Override
+            public void visit(ByteBuffer buf, int offset) {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    sink.onRecord(views.wrap(buf, offset));
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
             }
-        } finally {
-            reader.close();
-            pw.close();
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private static EnumSet<RecordFilter> recordFilters(Options opts) {
+        EnumSet<RecordFilter> filters = EnumSet.noneOf(RecordFilter.class);
+        if (opts.shouldDumpInfo()) {
+            filters.add(RecordFilter.DIAGNOSTIC);
+        }
+        if (opts.shouldDumpAlarms()) {
+            filters.add(RecordFilter.ALARM);
+        }
+        if (opts.shouldDumpDose()) {
+            filters.add(RecordFilter.DOSE);
+        }
+        return filters;
+    }
+
+    /**
+     * Records picked by the dump options, all of them if there are none.
+     */
+    private static RecordSink exportSink(EnumSet<RecordFilter> filters, RecordSink export) {
+        return new RecordSinks.FilteredSink(filters.isEmpty() ? EnumSet.of(RecordFilter.ALL) : filters, export);
+    }
+
+    private static void exportRecords(RecordBuffer records, EnumSet<RecordFilter> filters, TextExport export) throws IOException {
+        RecordSink sink = exportSink(filters, export);
+        BaseReader.RecordViews views = new BaseReader.RecordViews();
+        for (int i = 0; i < records.size(); i++) {
+            sink.onRecord(records.get(i, views));
+        }
+    }
+
+    private static void streamRecords(BaseReader reader, Options opts) throws IOException {
+        List<RecordSink> sinks = new ArrayList<RecordSink>();
+
+        EnumSet<RecordFilter> filters = recordFilters(opts);
+
+        PrintWriter pw = reader.getWriter();
+        if (!filters.isEmpty()) {
+            pw.println("Log records:");
+            sinks.add(new RecordSinks.FilteredSink(filters, new RecordSinks.PrintSink(pw)));
+        }
+        if (opts.getArchiveDir() != null) {
+            sinks.add(new RecordSinks.ArchiveSink(new RecordArchive(opts.getArchiveDir()), pw));
+        }
+        if (opts.getExportFile() != null) {
+            sinks.add(new RecordSinks.ExportSink(opts.getExportFile()));
+        }
+        if (opts.getFormatFile() != null) {
+            sinks.add(exportSink(filters, new TextExport(opts.getFormatFile(), BaseReader.LIVE_WINDOWS)));
         }
 
+        reader.streamAll(sinks.toArray(new RecordSink[sinks.size()]));
+    }
+
+    public static void execute(BaseReader reader, Options opts) throws IOException, NoSuchPortException, UnsupportedCommOperationException, PortInUseException {
+        if (opts.shouldGatherSpectrum()) {
+            reader.gatherSpectrum();
+            return;
+        }
+        if (opts.shouldLiveStream()) {
+            reader.liveStream();
+            return;
+        }
+        if (opts.shouldDumpSettings()) {
+            reader.dumpSettings();
+        }
+        if (opts.shouldStream()) {
+            streamRecords(reader, opts);
+            return;
+        }
+        if (opts.shouldDumpInfo()) {
+            reader.dumpDiagnostic();
+        }
+        if (opts.shouldDumpAlarms()) {
+            reader.dumpAlarms();
+        }
+        if (opts.shouldDumpDose()) {
+            reader.dumpDose();
+        }
+        if (opts.getFormatFile() != null) {
+            TextExport export = new TextExport(opts.getFormatFile(), BaseReader.LIVE_WINDOWS);
+            try {
+                exportRecords(reader.getRecords(), recordFilters(opts), export);
+            } finally {
+                export.close();
+            }
+        }
     }
 
 
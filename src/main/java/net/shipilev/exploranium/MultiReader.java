@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs independent sessions against several devices at once.
+ *
+ * Every device gets its own thread, transport and {@link BaseReader}, so
+ * a slow or stuck device only delays itself. Sessions open, run and close
+ * concurrently. Their output is cut in lines, and every completed line is
+ * stamped and put into one queue, which is drained by the calling thread;
+ * this yields a single stream ordered by line completion time. If the output
+ * falls behind, live sessions drop lines rather than delay their devices;
+ * log dumps and reports wait for the queue, so nothing is lost.
+ */
+public class MultiReader {
+
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+
+    private final Options opts;
+    private final PrintWriter pw;
+    private final BlockingQueue<Line> lines = new ArrayBlockingQueue<Line>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+
+    public MultiReader(Options opts, PrintWriter pw) {
+        this.opts = opts;
+        this.pw = pw;
+    }
+
+    public void run() throws InterruptedException {
+        SimpleDateFormat stamp = new SimpleDateFormat("HH:mm:ss.SSS");
+        List<String> ports = opts.getPorts();
+        CountDownLatch done = new CountDownLatch(ports.size());
+
+        for (String port : ports) {
+            Thread t = new Thread(new Session(port, done), "session-" + port);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        long lastDropped = 0;
+        while (done.getCount() > 0 || !lines.isEmpty()) {
+            Line l = lines.poll(100, TimeUnit.MILLISECONDS);
+            if (l != null) {
+                pw.print(stamp.format(new Date(l.time)));
+                pw.print(" [");
+                pw.print(l.source);
+                pw.print("] ");
+                pw.println(l.text);
+            }
+
+            long d = dropped.get();
+            if (d != lastDropped) {
+                pw.println("Warning: output is too slow, " + (d - lastDropped) + " lines dropped");
+                lastDropped = d;
+            }
+        }
+    }
+
+    private void emit(String source, String text) {
+        Line l = new Line(source, System.currentTimeMillis(), text);
+        if (opts.shouldLiveStream()) {
+            if (!lines.offer(l)) {
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+        try {
+            lines.put(l);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+        }
+    }
+
+    private class Session implements Runnable {
+        private final String port;
+        private final CountDownLatch done;
+
+        private Session(String port, CountDownLatch done) {
+            this.port = port;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            PrintWriter out = new PrintWriter(new LineWriter(port), true);
+            BaseReader reader = null;
+            try {
+                reader = new BaseReader(opts, out, Transports.open(port));
+                Main.execute(reader, opts);
+            } catch (Exception e) {
+                out.println("ERROR: " + e.getMessage());
+            } finally {
+                if (reader != null) {
+                    reader.close();
+                }
+                out.close();
+                done.countDown();
+            }
+        }
+    }
+
+    private class LineWriter extends Writer {
+        private final String source;
+        private final StringBuilder sb = new StringBuilder();
+
+        private LineWriter(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                if (c == '\n') {
+                    emit(source, sb.toString());
+                    sb.setLength(0);
+                } else if (c != '\r') {
+                    sb.append(c);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            // partial lines stay until completed
+        }
+
+        @Override
+        public void close() {
+            if (sb.length() > 0) {
+                emit(source, sb.toString());
+                sb.setLength(0);
+            }
+        }
+    }
+
+    private static class Line {
+        private final String source;
+        private final long time;
+        private final String text;
+
+        private Line(String source, long time, String text) {
+            this.source = source;
+            this.time = time;
+            this.text = text;
+        }
+    }
+
+}
@@ -27,17 +27,40 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.List;
 
 public class Options {
     private final String[] args;
     private final PrintWriter pw;
-    private String port;
+    private List<String> ports;
     private boolean liveStream;
+    private Integer httpPort;
+    private int housekeepingPeriod;
+    private File archiveDir;
+    private boolean offline;
+    private boolean stream;
+    private boolean summarize;
+    private FleetSummary.Period summaryPeriod;
+    private File exportFile;
+    private File formatFile;
+    private File outputFile;
+    private File sampleFile;
+    private File captureFile;
+    private File spectrumFile;
+    private int spectrumWindow;
+    private double calibrationGain;
+    private double calibrationOffset;
+    private double referenceEnergy = Double.NaN;
+    private Integer serial;
+    private long rangeFrom = Long.MIN_VALUE;
+    private long rangeTo = Long.MAX_VALUE;
     private boolean dumpInfo;
     private boolean dumpDose;
     private boolean dumpAlarm;
@@ -64,18 +87,58 @@ public class Options {
         OptionParser parser = new OptionParser();
         parser.formatHelpWith(new OptFormatter());
 
-        OptionSpec<String> port = parser.accepts("p", "Communication port (e.g. COM1, /dev/ttyUSB0, etc).")
-                .withRequiredArg().ofType(String.class).describedAs("PORT").required();
+        OptionSpec<String> port = parser.accepts("p", "Communication port (e.g. COM1, /dev/ttyUSB0, etc).\nRepeat to run several devices concurrently.\nUse \"sim[:key=value,...]\" for in-process device simulator,\nkeys: baud, latency, scale, counterDelay, cps, neutronCps,\nsource, sourceAfter, drop, diag, dose, seed.")
+                .withRequiredArg().ofType(String.class).describedAs("PORT");
 
         OptionSpec<String> spectrum = parser.accepts("s", "Gather gamma-spectrum for a given time.")
                 .withOptionalArg().ofType(String.class).describedAs("(seconds, seconds-per-channel)").defaultsTo("3600,5");
 
+        OptionSpec<File> spectrumFile = parser.accepts("w", "Keep every spectrum sweep in a file. An existing file is\nappended to, and its sweeps are added to the spectrum.")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+
+        OptionSpec<Integer> spectrumWindow = parser.accepts("W", "Show spectrum over the last given seconds, instead of\nthe whole acquisition.")
+                .withRequiredArg().ofType(Integer.class).describedAs("SECONDS");
+
+        OptionSpec<String> calibration = parser.accepts("E", "Spectrum energy calibration, keV per channel and offset.")
+                .withRequiredArg().ofType(String.class).describedAs("GAIN[,OFFSET]");
+        OptionSpec<Double> reference = parser.accepts("K", "Energy of the strongest spectrum line, keV. The gain is\ncalibrated against it as sweeps arrive.")
+                .withRequiredArg().ofType(Double.class).describedAs("KEV");
+
         parser.accepts("l", "Live data streaming.");
+        OptionSpec<Integer> housekeeping = parser.accepts("k", "Poll battery, temperature and RTC every given seconds during\nlive streaming, settings every tenth time.")
+                .withRequiredArg().ofType(Integer.class).describedAs("SECONDS");
+        OptionSpec<Integer> daemon = parser.accepts("D", "Daemon: live data streaming, serving the latest readings at\nhttp://127.0.0.1:PORT/live.json and /metrics instead of printing.")
+                .withRequiredArg().ofType(Integer.class).describedAs("PORT");
         parser.accepts("d", "Dump accumulated dose log.");
         parser.accepts("i", "Dump diagnostic info.");
         parser.accepts("a", "Dump registered alarms.");
         parser.accepts("u", "Dump user settings");
 
+        OptionSpec<File> archive = parser.accepts("A", "Archive directory. Downloaded logs are merged into it,\nrecords already archived are skipped.")
+                .withRequiredArg().ofType(File.class).describedAs("DIR");
+        parser.accepts("o", "Offline: serve log dumps from archive, do not open the port.");
+        parser.accepts("t", "Print dose, alarm and battery totals for archived logs.");
+        OptionSpec<String> period = parser.accepts("g", "Summarize archived logs of all devices in parallel,\nper day, week or month.")
+                .withRequiredArg().ofType(String.class).describedAs("period");
+        OptionSpec<Integer> serial = parser.accepts("n", "Device serial number to serve from archive (default: all).")
+                .withRequiredArg().ofType(Integer.class).describedAs("SERIAL");
+
+        parser.accepts("S", "Stream log records to the dumps/archive as they are downloaded,\ninstead of reading the whole log first.");
+        OptionSpec<File> export = parser.accepts("x", "Append raw downloaded records to a file.")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+
+        OptionSpec<File> format = parser.accepts("f", "Append log records and live samples to a file, as CSV for\n\"*.csv\", JSON lines for \"*.json\" or \"*.jsonl\", or in the\ndump layout. Records are filtered as with -i, -a, -d.")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+        OptionSpec<File> output = parser.accepts("O", "Copy all output to a log file, rotated every 16 Mb.")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+        OptionSpec<File> samples = parser.accepts("B", "Append live samples to a binary file.")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+        OptionSpec<File> capture = parser.accepts("c", "Capture all traffic with the device to a file. Play it back\nwith \"-p replay:FILE\" in real time, or \"-p replay-fast:FILE\".")
+                .withRequiredArg().ofType(File.class).describedAs("FILE");
+
+        OptionSpec<String> range = parser.accepts("r", "Time range for archive queries, either end may be omitted,\ne.g. \"2013/01/01,2014/01/01\" or \"2013/02/07 12:00:00,\".")
+                .withRequiredArg().ofType(String.class).describedAs("FROM,TO");
+
         parser.accepts("v", "Be verbose.");
         parser.accepts("h", "Print this help.");
 
@@ -94,8 +157,119 @@ public class Options {
             return false;
         }
 
-        this.port = set.valueOf(port);
-        this.liveStream = set.has("l");
+        this.ports = set.valuesOf(port);
+        this.archiveDir = set.valueOf(archive);
+        this.offline = set.has("o");
+        this.serial = set.valueOf(serial);
+        this.stream = set.has("S");
+        this.summarize = set.has("t");
+        if (set.has(period)) {
+            try {
+                this.summaryPeriod = FleetSummary.Period.parse(set.valueOf(period));
+            } catch (IllegalArgumentException e) {
+                pw.println("ERROR: " + e.getMessage());
+                pw.println();
+                parser.printHelpOn(pw);
+                return false;
+            }
+        }
+        this.exportFile = set.valueOf(export);
+        this.formatFile = set.valueOf(format);
+        this.outputFile = set.valueOf(output);
+        this.sampleFile = set.valueOf(samples);
+        this.captureFile = set.valueOf(capture);
+        this.spectrumFile = set.valueOf(spectrumFile);
+        this.spectrumWindow = set.has(spectrumWindow) ? set.valueOf(spectrumWindow) : 0;
+        if (set.has(reference)) {
+            this.referenceEnergy = set.valueOf(reference);
+        }
+        if (set.has(calibration)) {
+            String[] split = set.valueOf(calibration).split(",");
+            try {
+                this.calibrationGain = Double.valueOf(split[0]);
+                if (split.length > 1) {
+                    this.calibrationOffset = Double.valueOf(split[1]);
+                }
+            } catch (NumberFormatException e) {
+                pw.println("ERROR: Unable to parse calibration: " + e.getMessage());
+                pw.println();
+                parser.printHelpOn(pw);
+                return false;
+            }
+        }
+
+        if (set.has("r")) {
+            String[] split = set.valueOf(range).split(",", -1);
+            try {
+                if (split.length != 2) {
+                    throw new ParseException("Expected FROM,TO: " + set.valueOf(range), 0);
+                }
+                if (!split[0].trim().isEmpty()) {
+                    this.rangeFrom = DeviceTime.parse(split[0]);
+                }
+                if (!split[1].trim().isEmpty()) {
+                    this.rangeTo = DeviceTime.parse(split[1]);
+                }
+            } catch (ParseException e) {
+                pw.println("ERROR: Unable to parse time range: " + e.getMessage());
+                pw.println();
+                parser.printHelpOn(pw);
+                return false;
+            }
+        }
+
+        if (offline && archiveDir == null) {
+            pw.println("ERROR: Offline mode requires archive directory (-A).");
+            pw.println();
+            parser.printHelpOn(pw);
+            return false;
+        }
+
+        if (!offline && ports.isEmpty()) {
+            pw.println("ERROR: Missing required option(s) ['p']");
+            pw.println();
+            parser.printHelpOn(pw);
+            return false;
+        }
+
+        if (captureFile != null && ports.size() > 1) {
+            pw.println("ERROR: Capture (-c) works with a single port only.");
+            pw.println();
+            parser.printHelpOn(pw);
+            return false;
+        }
+
+        if (formatFile != null && ports.size() > 1) {
+            pw.println("ERROR: Export (-f) works with a single port only.");
+            pw.println();
+            parser.printHelpOn(pw);
+            return false;
+        }
+
+        if (exportFile != null && ports.size() > 1) {
+            pw.println("ERROR: Record export (-x) works with a single port only.");
+            pw.println();
+            parser.printHelpOn(pw);
+            return false;
+        }
+
+        if (sampleFile != null && ports.size() > 1) {
+            pw.println("ERROR: Sample file (-B) works with a single port only.");
+            pw.println();
+            parser.printHelpOn(pw);
+            return false;
+        }
+
+        if (spectrumFile != null && ports.size() > 1) {
+            pw.println("ERROR: Spectrum file (-w) works with a single port only.");
+            pw.println();
+            parser.printHelpOn(pw);
+            return false;
+        }
+
+        this.httpPort = set.valueOf(daemon);
+        this.housekeepingPeriod = set.has(housekeeping) ? set.valueOf(housekeeping) : 0;
+        this.liveStream = set.has("l") || httpPort != null;
         this.dumpInfo = set.has("i");
         this.dumpAlarm = set.has("a");
         this.dumpDose = set.has("d");
@@ -119,7 +293,71 @@ public class Options {
     }
 
     public String getPort() {
-        return port;
+        return ports.get(0);
+    }
+
+    public List<String> getPorts() {
+        return ports;
+    }
+
+    public File getArchiveDir() {
+        return archiveDir;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public boolean shouldSummarize() {
+        return summarize;
+    }
+
+    public FleetSummary.Period getSummaryPeriod() {
+        return summaryPeriod;
+    }
+
+    public boolean shouldStream() {
+        return stream;
+    }
+
+    public File getExportFile() {
+        return exportFile;
+    }
+
+    public File getFormatFile() {
+        return formatFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public File getCaptureFile() {
+        return captureFile;
+    }
+
+    public File getSampleFile() {
+        return sampleFile;
+    }
+
+    public Integer getSerial() {
+        return serial;
+    }
+
+    public long getRangeFrom() {
+        return rangeFrom;
+    }
+
+    public long getRangeTo() {
+        return rangeTo;
+    }
+
+    public int getHousekeepingPeriod() {
+        return housekeepingPeriod;
+    }
+
+    public Integer getHttpPort() {
+        return httpPort;
     }
 
     public boolean shouldLiveStream() {
@@ -130,6 +368,26 @@ public class Options {
         return gatherSpectrum;
     }
 
+    public File getSpectrumFile() {
+        return spectrumFile;
+    }
+
+    public int getSpectrumWindow() {
+        return spectrumWindow;
+    }
+
+    public double getCalibrationGain() {
+        return calibrationGain;
+    }
+
+    public double getCalibrationOffset() {
+        return calibrationOffset;
+    }
+
+    public double getReferenceEnergy() {
+        return referenceEnergy;
+    }
+
     public int getSpectrumDuration() {
         return spectrumDuration;
     }
@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+public class OutputSinks {
+
+    public static class ConsoleSink implements OutputSink {
+        private final Writer w;
+
+        public ConsoleSink(OutputStream out) {
+            this.w = new BufferedWriter(new OutputStreamWriter(out), 64 * 1024);
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) throws IOException {
+            w.write(buf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            w.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // do not close the console stream itself
+            w.flush();
+        }
+    }
+
+    /**
+     * Appends to a file, rolling it over to "file.1", "file.2", ... once it
+     * grows beyond the limit. Rollover happens on line boundaries. If the
+     * files cannot be renamed, the failure is reported on stderr, and the
+     * file keeps growing until the next attempt, after another limit worth.
+     */
+    public static class RotatingFileSink implements OutputSink {
+        private final File file;
+        private final long maxBytes;
+        private final int keep;
+        private FileOutputStream fos;
+        private Writer w;
+        private long written;
+
+        public RotatingFileSink(File file, long maxBytes, int keep) throws IOException {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.keep = keep;
+            open();
+        }
+
+        private void open() throws IOException {
+            fos = new FileOutputStream(file, true);
+            w = new BufferedWriter(new OutputStreamWriter(fos), 64 * 1024);
+            written = file.length();
+        }
+
+        private void rotate() throws IOException {
+            w.close();
+            String failure = null;
+            for (int i = keep - 1; i >= 1; i--) {
+                File src = new File(file.getPath() + "." + i);
+                if (src.exists()) {
+                    File dst = new File(file.getPath() + "." + (i + 1));
+                    if (!replace(src, dst)) {
+                        failure = "unable to rename " + src + " to " + dst;
+                    }
+                }
+            }
+            File first = new File(file.getPath() + ".1");
+            boolean rotated;
+            if (keep > 0) {
+                rotated = replace(file, first);
+            } else {
+                first.delete();
+                rotated = file.delete();
+            }
+            open();
+            if (!rotated) {
+                failure = (keep > 0) ? "unable to rename " + file + " to " + first : "unable to delete " + file;
+                // try again after another limit worth
+                written = 0;
+            }
+            if (failure != null) {
+                System.err.println("Warning: log rotation failed, " + failure);
+            }
+        }
+
+        private static boolean replace(File src, File dst) {
+            if (dst.exists() && !dst.delete()) {
+                return false;
+            }
+            return src.renameTo(dst);
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) throws IOException {
+            int start = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (buf[i] == '\n' && written + (i + 1 - start) >= maxBytes) {
+                    w.write(buf, start, i + 1 - start);
+                    rotate();
+                    start = i + 1;
+                }
+            }
+            w.write(buf, start, end - start);
+            written += end - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            w.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            w.close();
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress dots, rendered no more often than the given interval,
+ * no matter how fast the ticks come.
+ */
+public class Progress {
+
+    private final PrintWriter pw;
+    private final long intervalNanos;
+    private long last;
+
+    public Progress(PrintWriter pw, long intervalMillis) {
+        this.pw = pw;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.last = System.nanoTime() - intervalNanos;
+    }
+
+    public void tick() {
+        long now = System.nanoTime();
+        if (now - last >= intervalNanos) {
+            last = now;
+            pw.print(".");
+            pw.flush();
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+/**
+ * Moving averages of count rate over several windows at once.
+ * Keeps running sums for every window, so each sample costs O(1) per window,
+ * and nothing is allocated after construction.
+ */
+public class RateMeter {
+
+    private final int[] windows;
+    private final long[] counts;
+    private final long[] durations;
+    private final long[] sumCounts;
+    private final long[] sumDurations;
+    private final int capacity;
+    private long samples;
+
+    /**
+     * @param windows window lengths, in samples
+     */
+    public RateMeter(int... windows) {
+        if (windows.length == 0) {
+            throw new IllegalArgumentException("At least one window is required");
+        }
+        int max = 0;
+        for (int w : windows) {
+            if (w <= 0) {
+                throw new IllegalArgumentException("Window should be positive: " + w);
+            }
+            max = Math.max(max, w);
+        }
+        this.windows = windows.clone();
+        this.capacity = max;
+        this.counts = new long[max];
+        this.durations = new long[max];
+        this.sumCounts = new long[windows.length];
+        this.sumDurations = new long[windows.length];
+    }
+
+    public void add(long count, long duration) {
+        for (int i = 0; i < windows.length; i++) {
+            if (samples >= windows[i]) {
+                int evict = (int) ((samples - windows[i]) % capacity);
+                sumCounts[i] -= counts[evict];
+                sumDurations[i] -= durations[evict];
+            }
+            sumCounts[i] += count;
+            sumDurations[i] += duration;
+        }
+
+        int slot = (int) (samples % capacity);
+        counts[slot] = count;
+        durations[slot] = duration;
+        samples++;
+    }
+
+    public int windows() {
+        return windows.length;
+    }
+
+    public int window(int idx) {
+        return windows[idx];
+    }
+
+    public long samples() {
+        return samples;
+    }
+
+    public long counts(int idx) {
+        return sumCounts[idx];
+    }
+
+    public long duration(int idx) {
+        return sumDurations[idx];
+    }
+
+    /**
+     * @param idx window index, in constructor order
+     * @param unit duration of rate unit, e.g. 60000 for counts per minute over millisecond durations
+     * @return averaged rate, or 0 if no time was accumulated yet
+     */
+    public long rate(int idx, long unit) {
+        long d = sumDurations[idx];
+        return (d == 0) ? 0 : sumCounts[idx] * unit / d;
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only local archive of downloaded log records.
+ *
+ * Every device serial gets its own file of raw 16-byte records, in the order
+ * they were first seen. Prologues are not stored, as they change with every
+ * download. Duplicates are detected with an in-memory index of 64-bit record
+ * hashes, which is rebuilt by scanning the file when the serial is first used.
+ */
+public class RecordArchive {
+
+    public static final int RECORD_SIZE = 16;
+    public static final String SUFFIX = ".gr100";
+
+    private final File dir;
+    private final Map<Integer, LongHashSet> indexes = new HashMap<Integer, LongHashSet>();
+
+    public RecordArchive(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create archive directory " + dir);
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public File fileFor(int serial) {
+        return new File(dir, serial + SUFFIX);
+    }
+
+    public List<Integer> serials() {
+        List<Integer> r = new ArrayList<Integer>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String n : names) {
+                if (n.endsWith(SUFFIX)) {
+                    try {
+                        r.add(Integer.valueOf(n.substring(0, n.length() - SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not ours
+                    }
+                }
+            }
+        }
+        Collections.sort(r);
+        return r;
+    }
+
+    /**
+     * Appends records not seen before.
+     * @return number of records appended
+     */
+    public synchronized int ingest(int serial, RecordBuffer records) throws IOException {
+        Appender appender = appender(serial);
+        try {
+            BaseReader.RecordViews views = new BaseReader.RecordViews();
+            for (int i = 0; i < records.size(); i++) {
+                BaseReader.Record r = records.get(i, views);
+                if (!(r instanceof BaseReader.PrologueRecord)) {
+                    appender.append(r);
+                }
+            }
+        } finally {
+            appender.close();
+        }
+        return appender.added();
+    }
+
+    /**
+     * Opens the serial for appending records one by one.
+     */
+    public synchronized Appender appender(int serial) throws IOException {
+        return new Appender(serial, index(serial));
+    }
+
+    public class Appender {
+        private final int serial;
+        private final LongHashSet index;
+        private final FileOutputStream fos;
+        private final BufferedOutputStream out;
+        private final byte[] raw = new byte[RECORD_SIZE];
+        private int added;
+
+        private Appender(int serial, LongHashSet index) throws IOException {
+            this.serial = serial;
+            this.index = index;
+            this.fos = new FileOutputStream(fileFor(serial), true);
+            this.out = new BufferedOutputStream(fos);
+        }
+
+        public int serial() {
+            return serial;
+        }
+
+        public int added() {
+            return added;
+        }
+
+        /**
+         * @return true if record was not archived before
+         */
+        public boolean append(BaseReader.Record r) throws IOException {
+            r.copyRaw(raw, 0);
+            synchronized (RecordArchive.this) {
+                if (index.add(hash(raw, 0))) {
+                    out.write(raw);
+                    added++;
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        public void close() throws IOException {
+            synchronized (RecordArchive.this) {
+                try {
+                    out.flush();
+                    fos.getChannel().force(false);
+                } finally {
+                    fos.close();
+                }
+            }
+        }
+    }
+
+    public synchronized long count(int serial) {
+        return fileFor(serial).length() / RECORD_SIZE;
+    }
+
+    public interface RawVisitor {
+        /**
+         * @param raw record bytes, reused between calls
+         */
+        void visit(byte[] raw);
+    }
+
+    public synchronized void scan(int serial, RawVisitor visitor) throws IOException {
+        File f = fileFor(serial);
+        if (!f.exists()) {
+            return;
+        }
+        InputStream is = new BufferedInputStream(new FileInputStream(f), 64 * 1024);
+        try {
+            DataInputStream dis = new DataInputStream(is);
+            byte[] raw = new byte[RECORD_SIZE];
+            long count = f.length() / RECORD_SIZE;
+            for (long i = 0; i < count; i++) {
+                try {
+                    dis.readFully(raw);
+                } catch (EOFException e) {
+                    break;
+                }
+                visitor.visit(raw);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private LongHashSet index(int serial) throws IOException {
+        LongHashSet index = indexes.get(serial);
+        if (index == null) {
+            truncateTorn(serial);
+            final LongHashSet idx = new LongHashSet((int) Math.min(Integer.MAX_VALUE / 2, count(serial)));
+            scan(serial, new RawVisitor() {
+                @Override
+                public void visit(byte[] raw) {
+                    idx.add(hash(raw, 0));
+                }
+            });
+            indexes.put(serial, idx);
+            index = idx;
+        }
+        return index;
+    }
+
+    /**
+     * Drops the incomplete record left by interrupted append, if any.
+     */
+    private void truncateTorn(int serial) throws IOException {
+        File f = fileFor(serial);
+        long len = f.length();
+        if (len % RECORD_SIZE != 0) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.setLength(len - len % RECORD_SIZE);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    static long hash(byte[] buf, int off) {
+        long lo = 0;
+        long hi = 0;
+        for (int i = 0; i < 8; i++) {
+            lo |= (buf[off + i] & 0xFFL) << (8 * i);
+            hi |= (buf[off + 8 + i] & 0xFFL) << (8 * i);
+        }
+        return LongHashSet.mix(lo) ^ LongHashSet.mix(hi + 0x9E3779B97F4A7C15L);
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Growable, contiguous buffer of raw 16-byte records.
+ * Records are read through {@link BaseReader.RecordViews} flyweights; views
+ * handed out before the buffer grows keep pointing to the old storage.
+ */
+public class RecordBuffer {
+
+    public static final int RECORD_SIZE = 16;
+
+    private ByteBuffer buf;
+    private int size;
+
+    public RecordBuffer() {
+        this(64);
+    }
+
+    public RecordBuffer(int capacity) {
+        buf = allocate(Math.max(1, capacity));
+    }
+
+    private static ByteBuffer allocate(int records) {
+        ByteBuffer b = ByteBuffer.allocate(records * RECORD_SIZE);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        return b;
+    }
+
+    private int reserve() {
+        if ((size + 1) * RECORD_SIZE > buf.capacity()) {
+            ByteBuffer nb = allocate(size * 2);
+            System.arraycopy(buf.array(), 0, nb.array(), 0, size * RECORD_SIZE);
+            buf = nb;
+        }
+        return (size++) * RECORD_SIZE;
+    }
+
+    public void add(FrameDecoder.Frame frame) {
+        if (frame.length() != RECORD_SIZE) {
+            throw new IllegalArgumentException("Record frame should be " + RECORD_SIZE + " bytes: " + frame.length());
+        }
+        int off = reserve();
+        frame.copyTo(buf.array(), off);
+    }
+
+    public void add(BaseReader.Record r) {
+        int off = reserve();
+        r.copyRaw(buf.array(), off);
+    }
+
+    public void add(ByteBuffer src, int offset) {
+        int off = reserve();
+        byte[] dst = buf.array();
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            dst[off + i] = src.get(offset + i);
+        }
+    }
+
+    public void add(byte[] raw, int offset) {
+        int off = reserve();
+        System.arraycopy(raw, offset, buf.array(), off, RECORD_SIZE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+    public int offset(int idx) {
+        return idx * RECORD_SIZE;
+    }
+
+    public byte opcode(int idx) {
+        return buf.get(idx * RECORD_SIZE + 15);
+    }
+
+    public BaseReader.Record get(int idx, BaseReader.RecordViews views) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("Index: " + idx + ", size: " + size);
+        }
+        return views.wrap(buf, idx * RECORD_SIZE);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+}
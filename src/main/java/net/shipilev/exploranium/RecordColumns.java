@@ -0,0 +1,299 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Log records decoded into primitive columns, one array per field.
+ *
+ * Fields that do not apply to a record type hold zero; records without
+ * timestamp have {@link Long#MIN_VALUE} epoch second. Rows are selected
+ * with {@link #select}, narrowed with {@code where} on any column, and
+ * aggregated with typed scans, all in plain loops over arrays, without
+ * per-record objects. Arrays returned by accessors are the live storage,
+ * valid up to {@link #size()}.
+ */
+public class RecordColumns implements RecordStore.Visitor, RecordSink {
+
+    private byte[] opcode;
+    private long[] epochSecond;
+    private int[] dose;
+    private short[] seconds;
+    private int[] maxGamma;
+    private int[] maxDose;
+    private short[] voltage;
+    private short[] current;
+    private int size;
+
+    public RecordColumns() {
+        this(1024);
+    }
+
+    public RecordColumns(int capacity) {
+        capacity = Math.max(1, capacity);
+        opcode = new byte[capacity];
+        epochSecond = new long[capacity];
+        dose = new int[capacity];
+        seconds = new short[capacity];
+        maxGamma = new int[capacity];
+        maxDose = new int[capacity];
+        voltage = new short[capacity];
+        current = new short[capacity];
+    }
+
+    private void grow() {
+        int n = opcode.length * 2;
+        opcode = Arrays.copyOf(opcode, n);
+        epochSecond = Arrays.copyOf(epochSecond, n);
+        dose = Arrays.copyOf(dose, n);
+        seconds = Arrays.copyOf(seconds, n);
+        maxGamma = Arrays.copyOf(maxGamma, n);
+        maxDose = Arrays.copyOf(maxDose, n);
+        voltage = Arrays.copyOf(voltage, n);
+        current = Arrays.copyOf(current, n);
+    }
+
+    /**
+     * Decodes one raw record; {@code buf} should be little-endian.
+     */
+    public void add(ByteBuffer buf, int off) {
+        if (size == opcode.length) {
+            grow();
+        }
+        int row = size++;
+        byte op = buf.get(off + 15);
+        opcode[row] = op;
+        epochSecond[row] = Long.MIN_VALUE;
+        dose[row] = 0;
+        seconds[row] = 0;
+        maxGamma[row] = 0;
+        maxDose[row] = 0;
+        voltage[row] = 0;
+        current[row] = 0;
+
+        switch (op) {
+            case 'D':
+                epochSecond[row] = DeviceTime.epochSecond(buf, off);
+                dose[row] = buf.getInt(off + 6);
+                seconds[row] = buf.getShort(off + 10);
+                break;
+            case 'A':
+                epochSecond[row] = DeviceTime.epochSecond(buf, off);
+                maxGamma[row] = buf.getInt(off + 6);
+                maxDose[row] = buf.getInt(off + 10);
+                break;
+            case 'P':
+            case 'S':
+            case 'T':
+            case 'W':
+            case 'B':
+                epochSecond[row] = DeviceTime.epochSecond(buf, off);
+                voltage[row] = buf.getShort(off + 6);
+                current[row] = buf.getShort(off + 8);
+                break;
+            default:
+                // prologue and unknown records carry no fields here
+        }
+    }
+
+    public void addAll(RecordBuffer records) {
+        ByteBuffer buf = records.buffer();
+        for (int i = 0; i < records.size(); i++) {
+            add(buf, records.offset(i));
+        }
+    }
+
+    @Override
+    public void visit(ByteBuffer buf, int offset) {
+        add(buf, offset);
+    }
+
+    @Override
+    public void onRecord(BaseReader.Record r) {
+        add(r.b, r.off);
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] opcode() {
+        return opcode;
+    }
+
+    public long[] epochSecond() {
+        return epochSecond;
+    }
+
+    /** Dose, nSv ('D'). */
+    public int[] dose() {
+        return dose;
+    }
+
+    /** Dose accumulation time, seconds ('D'). */
+    public short[] seconds() {
+        return seconds;
+    }
+
+    /** Peak gamma, cps ('A'). */
+    public int[] maxGamma() {
+        return maxGamma;
+    }
+
+    /** Peak dose rate, nSv/h ('A'). */
+    public int[] maxDose() {
+        return maxDose;
+    }
+
+    /** Battery voltage, 10 mV (diagnostic records). */
+    public short[] voltage() {
+        return voltage;
+    }
+
+    /** Current drain, mA (diagnostic records). */
+    public short[] current() {
+        return current;
+    }
+
+    /**
+     * Rows of the given opcode (0 for all) within [from, to] epoch seconds.
+     */
+    public Selection select(byte op, long from, long to) {
+        return select(op, from, to, 0, size);
+    }
+
+    /**
+     * Same as above, only looking at rows [fromRow, toRow).
+     */
+    public Selection select(byte op, long from, long to, int fromRow, int toRow) {
+        Selection s = new Selection(toRow - fromRow);
+        int[] rows = s.rows;
+        int n = 0;
+        for (int r = fromRow; r < toRow; r++) {
+            long t = epochSecond[r];
+            if ((op == 0 || opcode[r] == op) && t >= from && t <= to) {
+                rows[n++] = r;
+            }
+        }
+        s.count = n;
+        return s;
+    }
+
+    /**
+     * Row indices into the columns, in ascending order.
+     */
+    public static class Selection {
+        private final int[] rows;
+        private int count;
+
+        private Selection(int capacity) {
+            this.rows = new int[capacity];
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public int row(int i) {
+            return rows[i];
+        }
+
+        /**
+         * Keeps rows where {@code min <= column[row] <= max}.
+         */
+        public Selection where(int[] column, int min, int max) {
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                int v = column[rows[i]];
+                if (v >= min && v <= max) {
+                    rows[n++] = rows[i];
+                }
+            }
+            count = n;
+            return this;
+        }
+
+        public Selection where(short[] column, int min, int max) {
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                int v = column[rows[i]];
+                if (v >= min && v <= max) {
+                    rows[n++] = rows[i];
+                }
+            }
+            count = n;
+            return this;
+        }
+
+        public long sum(int[] column) {
+            long s = 0;
+            for (int i = 0; i < count; i++) {
+                s += column[rows[i]];
+            }
+            return s;
+        }
+
+        public long sum(short[] column) {
+            long s = 0;
+            for (int i = 0; i < count; i++) {
+                s += column[rows[i]];
+            }
+            return s;
+        }
+
+        public int max(int[] column) {
+            int m = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                m = Math.max(m, column[rows[i]]);
+            }
+            return m;
+        }
+
+        public int min(short[] column) {
+            int m = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                m = Math.min(m, column[rows[i]]);
+            }
+            return m;
+        }
+
+        /**
+         * Adds {@code column} values into buckets of {@code width} seconds
+         * starting at {@code start}; rows outside the buckets are skipped.
+         */
+        public void histogram(long[] epochSecond, int[] column, long start, long width, long[] buckets) {
+            for (int i = 0; i < count; i++) {
+                int r = rows[i];
+                long b = (epochSecond[r] - start) / width;
+                if (epochSecond[r] >= start && b < buckets.length) {
+                    buckets[(int) b] += column[r];
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+public enum RecordFilter {
+
+    ALL {
+        @Override
+        public boolean accepts(BaseReader.Record r) {
+            return true;
+        }
+    },
+
+    DIAGNOSTIC {
+        @Override
+        public boolean accepts(BaseReader.Record r) {
+            return !(r instanceof BaseReader.AlarmRecord) && !(r instanceof BaseReader.DoseRecord);
+        }
+    },
+
+    ALARM {
+        @Override
+        public boolean accepts(BaseReader.Record r) {
+            return r instanceof BaseReader.PrologueRecord || r instanceof BaseReader.AlarmRecord;
+        }
+    },
+
+    DOSE {
+        @Override
+        public boolean accepts(BaseReader.Record r) {
+            return r instanceof BaseReader.PrologueRecord || r instanceof BaseReader.DoseRecord;
+        }
+    };
+
+    public abstract boolean accepts(BaseReader.Record r);
+
+}
@@ -0,0 +1,38 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.IOException;
+
+/**
+ * Receives log records as they are downloaded.
+ * The record is a flyweight over the receive buffer: it is only valid
+ * during the call, copy the data out if it should be kept.
+ */
+public interface RecordSink {
+
+    void onRecord(BaseReader.Record r) throws IOException;
+
+    /**
+     * Called once the download is over, successfully or not.
+     */
+    void close() throws IOException;
+
+}
@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.EnumSet;
+
+public class RecordSinks {
+
+    /**
+     * Passes records matching any of the filters to the delegate.
+     */
+    public static class FilteredSink implements RecordSink {
+        private final RecordFilter[] filters;
+        private final RecordSink delegate;
+
+        public FilteredSink(EnumSet<RecordFilter> filters, RecordSink delegate) {
+            this.filters = filters.toArray(new RecordFilter[filters.size()]);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onRecord(BaseReader.Record r) throws IOException {
+            for (RecordFilter f : filters) {
+                if (f.accepts(r)) {
+                    delegate.onRecord(r);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Prints records in the same layout as log dumps.
+     */
+    public static class PrintSink implements RecordSink {
+        private final PrintWriter pw;
+        private final LineFormatter text = new LineFormatter.Text();
+
+        public PrintSink(PrintWriter pw) {
+            this.pw = pw;
+        }
+
+        @Override
+        public void onRecord(BaseReader.Record r) {
+            text.record(r).writeTo(pw);
+            pw.flush();
+        }
+
+        @Override
+        public void close() {
+            pw.println();
+            pw.flush();
+        }
+    }
+
+    /**
+     * Merges records into the archive, the serial comes from the log prologue.
+     */
+    public static class ArchiveSink implements RecordSink {
+        private final RecordArchive archive;
+        private final PrintWriter pw;
+        private RecordArchive.Appender appender;
+        private int orphans;
+
+        public ArchiveSink(RecordArchive archive, PrintWriter pw) {
+            this.archive = archive;
+            this.pw = pw;
+        }
+
+        @Override
+        public void onRecord(BaseReader.Record r) throws IOException {
+            if (r instanceof BaseReader.PrologueRecord) {
+                int serial = ((BaseReader.PrologueRecord) r).getSerial();
+                if (appender == null) {
+                    appender = archive.appender(serial);
+                } else if (appender.serial() != serial) {
+                    throw new IOException("Serial changed mid-download: " + appender.serial() + " -> " + serial);
+                }
+                return;
+            }
+
+            if (appender == null) {
+                orphans++;
+            } else {
+                appender.append(r);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (appender != null) {
+                appender.close();
+                int serial = appender.serial();
+                pw.printf("Archived %d new records for serial %d, %d records total.\n", appender.added(), serial, archive.count(serial));
+                pw.println();
+            }
+            if (orphans > 0) {
+                pw.println("Warning: no prologue record, unable to archive " + orphans + " records.");
+                pw.println();
+            }
+        }
+    }
+
+    /**
+     * Writes raw 16-byte records to a file, in the archive format.
+     */
+    public static class ExportSink implements RecordSink {
+        private final FileOutputStream fos;
+        private final BufferedOutputStream out;
+        private final byte[] raw = new byte[RecordBuffer.RECORD_SIZE];
+
+        public ExportSink(File file) throws IOException {
+            this.fos = new FileOutputStream(file, true);
+            this.out = new BufferedOutputStream(fos, 64 * 1024);
+        }
+
+        @Override
+        public void onRecord(BaseReader.Record r) throws IOException {
+            if (r instanceof BaseReader.PrologueRecord) {
+                return;
+            }
+            r.copyRaw(raw, 0);
+            out.write(raw);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.flush();
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+}
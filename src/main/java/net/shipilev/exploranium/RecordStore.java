@@ -0,0 +1,282 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a file of raw 16-byte records, memory-mapped.
+ *
+ * Keeps a sparse index with one entry per {@link #BLOCK} records: the
+ * maximum timestamp over all preceding blocks, and the minimum timestamp over
+ * all following blocks. Both are monotonic even when the log is not (e.g. after
+ * RTC resets), which makes time range queries two binary searches and a scan
+ * of candidate blocks. Records are decoded lazily from the mapped region.
+ *
+ * Every download appends the diagnostic, alarm and dose logs one after
+ * another, so the store as a whole goes back in time at each log boundary.
+ * The index is kept per log, as each log on its own is in time order.
+ */
+public class RecordStore {
+
+    public static final int RECORD_SIZE = RecordArchive.RECORD_SIZE;
+    public static final int BLOCK = 256;
+
+    private static final int LOGS = 3;
+
+    private final File file;
+    private MappedByteBuffer map;
+    private int count;
+    private int blocks;
+    private final long[][] blockMin = new long[LOGS][0];
+    private final long[][] blockMax = new long[LOGS][0];
+    private final long[][] prefixMax = new long[LOGS][0];
+    private final long[][] suffixMin = new long[LOGS][0];
+
+    /** Blocks walked by the last query, for tests. */
+    int lastBlocks;
+
+    public RecordStore(File file) throws IOException {
+        this.file = file;
+        refresh();
+    }
+
+    /**
+     * Remaps the file if it has grown, and extends the index.
+     */
+    public void refresh() throws IOException {
+        long len = file.exists() ? file.length() : 0;
+        long records = len / RECORD_SIZE;
+        if (records > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IOException("Store is too large to map: " + file);
+        }
+        if (records == count) {
+            return;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, records * RECORD_SIZE);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            raf.close();
+        }
+
+        int firstDirty = count / BLOCK;
+        count = (int) records;
+        int oldBlocks = blocks;
+        blocks = (count + BLOCK - 1) / BLOCK;
+
+        for (int l = 0; l < LOGS; l++) {
+            if (blocks != oldBlocks) {
+                blockMin[l] = Arrays.copyOf(blockMin[l], blocks);
+                blockMax[l] = Arrays.copyOf(blockMax[l], blocks);
+                prefixMax[l] = Arrays.copyOf(prefixMax[l], blocks);
+                suffixMin[l] = new long[blocks];
+            }
+            // blocks without records of the log never match
+            Arrays.fill(blockMin[l], firstDirty, blocks, Long.MAX_VALUE);
+            Arrays.fill(blockMax[l], firstDirty, blocks, Long.MIN_VALUE);
+        }
+
+        for (int b = firstDirty; b < blocks; b++) {
+            int end = Math.min(count, (b + 1) * BLOCK);
+            for (int i = b * BLOCK; i < end; i++) {
+                int l = log(opcode(i));
+                long t = epochSecond(i);
+                blockMin[l][b] = Math.min(blockMin[l][b], t);
+                blockMax[l][b] = Math.max(blockMax[l][b], t);
+            }
+            for (int l = 0; l < LOGS; l++) {
+                prefixMax[l][b] = (b == 0) ? blockMax[l][b] : Math.max(prefixMax[l][b - 1], blockMax[l][b]);
+            }
+        }
+
+        for (int l = 0; l < LOGS; l++) {
+            long m = Long.MAX_VALUE;
+            for (int b = blocks - 1; b >= 0; b--) {
+                m = Math.min(m, blockMin[l][b]);
+                suffixMin[l][b] = m;
+            }
+        }
+    }
+
+    /**
+     * @return the device log the record comes from: diagnostic, alarm or dose
+     */
+    private static int log(byte opcode) {
+        switch (opcode) {
+            case 'A':
+                return 1;
+            case 'D':
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public ByteBuffer buffer() {
+        return map;
+    }
+
+    public int offset(int idx) {
+        return idx * RECORD_SIZE;
+    }
+
+    public byte opcode(int idx) {
+        return map.get(idx * RECORD_SIZE + 15);
+    }
+
+    public long epochSecond(int idx) {
+        return DeviceTime.epochSecond(map, idx * RECORD_SIZE);
+    }
+
+    public byte[] raw(int idx) {
+        byte[] r = new byte[RECORD_SIZE];
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            r[i] = map.get(idx * RECORD_SIZE + i);
+        }
+        return r;
+    }
+
+    public interface Visitor {
+        /**
+         * @param buf mapped buffer, little-endian
+         * @param offset record offset in buffer
+         */
+        void visit(ByteBuffer buf, int offset);
+    }
+
+    /**
+     * Visits records with timestamps in [from, to], in store order.
+     * @param opcode record opcode to match, or 0 for all
+     * @return number of records visited
+     */
+    public int query(long from, long to, byte opcode, Visitor v) {
+        int only = (opcode != 0) ? log(opcode) : -1;
+
+        // candidate block range of every log
+        int[] next = new int[LOGS];
+        int[] end = new int[LOGS];
+        for (int l = 0; l < LOGS; l++) {
+            if (only < 0 || l == only) {
+                next[l] = firstBlock(l, from);
+                end[l] = endBlock(l, next[l], to);
+            }
+        }
+
+        // walk the ranges together to keep store order
+        int visited = 0;
+        int walked = 0;
+        while (true) {
+            int b = Integer.MAX_VALUE;
+            for (int l = 0; l < LOGS; l++) {
+                if (next[l] < end[l]) {
+                    b = Math.min(b, next[l]);
+                }
+            }
+            if (b == Integer.MAX_VALUE) {
+                break;
+            }
+            for (int l = 0; l < LOGS; l++) {
+                if (next[l] == b) {
+                    next[l]++;
+                }
+            }
+            walked++;
+
+            if (!candidate(b, from, to, only)) {
+                continue;
+            }
+            int last = Math.min(count, (b + 1) * BLOCK);
+            for (int i = b * BLOCK; i < last; i++) {
+                int off = i * RECORD_SIZE;
+                if (opcode != 0 && map.get(off + 15) != opcode) {
+                    continue;
+                }
+                long t = DeviceTime.epochSecond(map, off);
+                if (t >= from && t <= to) {
+                    v.visit(map, off);
+                    visited++;
+                }
+            }
+        }
+        lastBlocks = walked;
+        return visited;
+    }
+
+    /**
+     * First block that may have t >= from: prefixMax is non-decreasing.
+     */
+    private int firstBlock(int l, long from) {
+        int lo = 0;
+        int hi = blocks;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (prefixMax[l][mid] < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * First block after which nothing has t <= to: suffixMin is non-decreasing.
+     */
+    private int endBlock(int l, int first, long to) {
+        int lo = first;
+        int hi = blocks;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (suffixMin[l][mid] <= to) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean candidate(int b, long from, long to, int only) {
+        for (int l = 0; l < LOGS; l++) {
+            if (only >= 0 && l != only) {
+                continue;
+            }
+            if (blockMax[l][b] >= from && blockMin[l][b] <= to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Plays the device side of a {@link CaptureFile} back to the host.
+ * Selected with port names like "replay:FILE", or "replay-fast:FILE".
+ *
+ * Device bytes recorded after a host write are released once the host has
+ * written as many bytes again. In real-time mode they are delayed by the same
+ * amount as in the capture, counting from that write; in fast mode they are
+ * available immediately, which leaves the decoders as the only limit. Host
+ * bytes are not checked against the capture, only counted for mismatches.
+ */
+public class ReplayTransport implements Transport {
+
+    public static final String PREFIX = "replay";
+    public static final String FAST_PREFIX = "replay-fast";
+
+    private final String name;
+    private final boolean realTime;
+    private final List<CaptureFile.Entry> entries;
+    private final SimulatedLine line;
+    private final InputStream in;
+    private final OutputStream out;
+    private volatile int receiveTimeout = 1000;
+
+    private int pos;
+    private int consumed;
+    private long baseNanos;
+    private long baseTime;
+    private long mismatches;
+
+    public ReplayTransport(String name, File file, boolean realTime) throws IOException {
+        this.name = name;
+        this.realTime = realTime;
+        this.entries = CaptureFile.load(file);
+        this.line = new SimulatedLine(0);
+        this.in = new LineInputStream();
+        this.out = new HostOutputStream();
+        this.baseTime = System.nanoTime();
+        release();
+    }
+
+    public static boolean isReplay(String port) {
+        return port.startsWith(PREFIX + ":") || port.startsWith(FAST_PREFIX + ":");
+    }
+
+    public static ReplayTransport open(String port) throws IOException {
+        boolean fast = port.startsWith(FAST_PREFIX + ":");
+        String file = port.substring(port.indexOf(':') + 1);
+        return new ReplayTransport(port, new File(file), !fast);
+    }
+
+    /**
+     * Host bytes that differ from the capture.
+     */
+    public synchronized long getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * True when all recorded device bytes were released.
+     */
+    public synchronized boolean isDone() {
+        return pos == entries.size();
+    }
+
+    private void release() {
+        while (pos < entries.size()) {
+            CaptureFile.Entry e = entries.get(pos);
+            if (e.direction != CaptureFile.DEVICE_TO_HOST) {
+                return;
+            }
+            line.send(e.data, realTime ? baseTime + (e.nanos - baseNanos) : baseTime);
+            pos++;
+        }
+    }
+
+    private synchronized void hostWrite(int b) {
+        if (pos == entries.size()) {
+            mismatches++;
+            return;
+        }
+
+        CaptureFile.Entry e = entries.get(pos);
+        if (e.data[consumed] != (byte) b) {
+            mismatches++;
+        }
+        if (++consumed == e.data.length) {
+            consumed = 0;
+            pos++;
+            baseNanos = e.nanos;
+            baseTime = System.nanoTime();
+            release();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void setReceiveTimeout(int millis) {
+        receiveTimeout = millis;
+    }
+
+    @Override
+    public void close() {
+        line.close();
+    }
+
+    /**
+     * Once the capture is over, reads fail right away instead of timing out.
+     */
+    private boolean exhausted() {
+        return isDone() && line.isDrained();
+    }
+
+    private class LineInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            if (exhausted()) {
+                return -1;
+            }
+            int r = line.read(single, 0, 1, receiveTimeout);
+            return (r == -1) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (exhausted()) {
+                return -1;
+            }
+            return line.read(b, off, len, receiveTimeout);
+        }
+
+        @Override
+        public int available() {
+            return line.available();
+        }
+    }
+
+    private class HostOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            hostWrite(b);
+        }
+    }
+
+}
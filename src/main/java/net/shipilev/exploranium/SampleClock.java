@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time base for live samples, built on {@link System#nanoTime()}.
+ *
+ * Counter exchanges are stamped when the command is sent, when its acknowledge
+ * arrives and when the frame completes. The device starts integrating as it
+ * acknowledges, so the ack-to-frame time, smoothed over exchanges and with
+ * outliers dropped, estimates the integration time. A run of outliers means
+ * the estimate itself is off, e.g. it was seeded by a bad first exchange or the
+ * device changed its integration time, and the estimate is seeded again.
+ *
+ * Wall-clock time is derived from the monotonic stamps. The mapping is slewed
+ * towards the system clock by at most {@link #MAX_SLEW} of the elapsed time,
+ * so it never goes backwards. When the system clock steps forward by more than
+ * {@link #STEP_MILLIS}, the mapping jumps along. Backward steps are slewed in
+ * as well, so after a large one timestamps run ahead of the system clock for a
+ * while, but stay monotonic. Device RTC readings are kept against the same
+ * stamps, which gives the RTC offset and its drift.
+ */
+public class SampleClock {
+
+    /** Weight of a new measurement in the integration time estimate. */
+    static final double SMOOTHING = 0.1;
+
+    /** Measurements this far off the estimate are taken for outliers. */
+    static final double OUTLIER = 0.5;
+
+    /** This many outliers in a row re-seed the estimate. */
+    static final int RESEED = 5;
+
+    /** Largest correction towards the system clock, per unit of elapsed time. */
+    static final double MAX_SLEW = 0.01;
+
+    /** System clock steps larger than this re-base the mapping. */
+    static final long STEP_MILLIS = 5000;
+
+    /** RTC drift is only estimated over at least this long. */
+    static final long MIN_DRIFT_SPAN = TimeUnit.MINUTES.toNanos(10);
+
+    private long baseNanos;
+    private double baseMillis;
+    private long lastSync;
+
+    private double integration;
+    private long exchanges;
+    private long outliers;
+    private int outlierRun;
+
+    private long rtcFirstNanos;
+    private double rtcFirstOffset;
+    private long rtcLastNanos;
+    private double rtcLastOffset;
+    private long rtcReadings;
+
+    public SampleClock() {
+        this(System.nanoTime(), System.currentTimeMillis());
+    }
+
+    public SampleClock(long nanos, long wallMillis) {
+        this.baseNanos = nanos;
+        this.baseMillis = wallMillis;
+        this.lastSync = nanos;
+    }
+
+    /**
+     * Accounts for one counter exchange.
+     * @return integration time estimate, nanoseconds
+     */
+    public long exchange(long sentNanos, long ackNanos, long doneNanos) {
+        double m = doneNanos - ackNanos;
+        if (exchanges == 0) {
+            integration = m;
+        } else if (Math.abs(m - integration) > OUTLIER * integration) {
+            outliers++;
+            if (++outlierRun >= RESEED) {
+                integration = m;
+                outlierRun = 0;
+            }
+        } else {
+            integration += (m - integration) * SMOOTHING;
+            outlierRun = 0;
+        }
+        exchanges++;
+        return integrationNanos();
+    }
+
+    public long integrationNanos() {
+        return (long) integration;
+    }
+
+    public long getExchanges() {
+        return exchanges;
+    }
+
+    public long getOutliers() {
+        return outliers;
+    }
+
+    /**
+     * Wall-clock time for the monotonic stamp, milliseconds.
+     */
+    public long wallMillis(long nanos) {
+        return (long) (baseMillis + (nanos - baseNanos) / 1e6);
+    }
+
+    /**
+     * Steers the mapping towards the system clock, read at the given stamp.
+     */
+    public void sync(long nanos, long systemMillis) {
+        double error = systemMillis - (baseMillis + (nanos - baseNanos) / 1e6);
+        if (error > STEP_MILLIS) {
+            baseNanos = nanos;
+            baseMillis = systemMillis;
+        } else {
+            double limit = MAX_SLEW * (nanos - lastSync) / 1e6;
+            baseMillis += Math.max(-limit, Math.min(limit, error));
+        }
+        lastSync = nanos;
+    }
+
+    /**
+     * Accounts for the device RTC reading, received at the given stamp.
+     */
+    public void rtc(long nanos, long deviceEpochSecond) {
+        // RTC ticks whole seconds, assume the reading is mid-second
+        double offset = deviceEpochSecond + 0.5 - wallMillis(nanos) / 1000.0;
+        if (rtcReadings == 0) {
+            rtcFirstNanos = nanos;
+            rtcFirstOffset = offset;
+        }
+        rtcLastNanos = nanos;
+        rtcLastOffset = offset;
+        rtcReadings++;
+    }
+
+    public boolean hasRtc() {
+        return rtcReadings > 0;
+    }
+
+    /**
+     * Device RTC minus wall-clock time, seconds.
+     */
+    public double rtcOffset() {
+        return rtcLastOffset;
+    }
+
+    /**
+     * RTC drift against wall-clock time, parts per million; zero until
+     * readings span {@link #MIN_DRIFT_SPAN}.
+     */
+    public double rtcDriftPpm() {
+        long span = rtcLastNanos - rtcFirstNanos;
+        if (span < MIN_DRIFT_SPAN) {
+            return 0;
+        }
+        return (rtcLastOffset - rtcFirstOffset) * 1e15 / span;
+    }
+
+    /**
+     * Device RTC time for the monotonic stamp, epoch seconds as in {@link DeviceTime}.
+     */
+    public double deviceSecond(long nanos) {
+        double drift = rtcDriftPpm() * 1e-6 * (nanos - rtcLastNanos) / 1e9;
+        return wallMillis(nanos) / 1000.0 + rtcLastOffset + drift;
+    }
+
+}
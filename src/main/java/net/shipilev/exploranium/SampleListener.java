@@ -19,11 +19,13 @@
  */
 package net.shipilev.exploranium;
 
-public class Timing {
-    public final long duration;
-    public final int counts;
-    public Timing(long duration, int counts) {
-        this.duration = duration;
-        this.counts = counts;
-    }
+public interface SampleListener {
+
+    void onSample(LiveSample sample);
+
+    /**
+     * Called when samples were dropped because listeners could not keep up.
+     */
+    void onDropped(long count);
+
 }
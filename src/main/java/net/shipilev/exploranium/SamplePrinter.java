@@ -0,0 +1,45 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.PrintWriter;
+
+public class SamplePrinter implements SampleListener {
+
+    private final PrintWriter pw;
+    private final LineFormatter text;
+
+    public SamplePrinter(PrintWriter pw, int[] windows) {
+        this.pw = pw;
+        this.text = new LineFormatter.Text(windows);
+    }
+
+    @Override
+    public void onSample(LiveSample s) {
+        text.sample(s).writeTo(pw);
+        pw.flush();
+    }
+
+    @Override
+    public void onDropped(long count) {
+        pw.println("Warning: output is too slow, " + count + " samples dropped");
+    }
+
+}
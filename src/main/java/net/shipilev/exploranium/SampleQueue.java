@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer, single-consumer queue of live samples.
+ * Slots are preallocated and samples are copied in and out, so steady
+ * state is garbage-free. When full, the producer drops the sample instead
+ * of waiting: the device loop should never be stalled by the output.
+ */
+public class SampleQueue {
+
+    private final LiveSample[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread consumer;
+
+    public SampleQueue(int capacity, int windows) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new LiveSample[cap];
+        for (int i = 0; i < cap; i++) {
+            slots[i] = new LiveSample(windows);
+        }
+        mask = cap - 1;
+    }
+
+    public boolean offer(LiveSample s) {
+        long t = tail.get();
+        if (t - head.get() >= slots.length) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        slots[(int) (t & mask)].copyFrom(s);
+        tail.lazySet(t + 1);
+        LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * @return true if sample was copied into {@code dst}, false if queue stayed empty for the timeout
+     */
+    public boolean poll(LiveSample dst, long timeoutNanos) {
+        long h = head.get();
+        if (h == tail.get()) {
+            consumer = Thread.currentThread();
+            if (h == tail.get()) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+            if (h == tail.get()) {
+                return false;
+            }
+        }
+        dst.copyFrom(slots[(int) (h & mask)]);
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.RXTXPort;
+import gnu.io.SerialPort;
+import gnu.io.UnsupportedCommOperationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class SerialTransport implements Transport {
+
+    private final String port;
+    private final RXTXPort serial;
+
+    public SerialTransport(String port) throws NoSuchPortException, PortInUseException, UnsupportedCommOperationException {
+        this.port = port;
+        CommPortIdentifier ident;
+        // sessions open their ports concurrently, keep property and lookup together
+        synchronized (SerialTransport.class) {
+            System.setProperty("gnu.io.rxtx.SerialPorts", port);
+            ident = CommPortIdentifier.getPortIdentifier(port);
+        }
+
+        serial = ident.open("NRSerialPort", 2000);
+        serial.enableReceiveThreshold(1);
+        serial.enableReceiveTimeout(1000);
+        serial.setSerialPortParams(2400, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+    }
+
+    @Override
+    public String getName() {
+        return port;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return serial.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return serial.getOutputStream();
+    }
+
+    @Override
+    public void setReceiveTimeout(int millis) {
+        serial.enableReceiveTimeout(millis);
+    }
+
+    @Override
+    public void close() {
+        serial.close();
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Device-to-host half of the simulated serial wire.
+ * Bytes are queued with their departure time and are handed out to the
+ * reader no sooner than the configured baud rate permits.
+ */
+public class SimulatedLine {
+
+    private final long nanosPerByte;
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<Chunk>();
+    private long wireFree;
+    private boolean closed;
+
+    public SimulatedLine(int baud) {
+        // 8N1: start bit, eight data bits, stop bit
+        this.nanosPerByte = (baud > 0) ? TimeUnit.SECONDS.toNanos(10) / baud : 0;
+        this.wireFree = System.nanoTime();
+    }
+
+    public long getNanosPerByte() {
+        return nanosPerByte;
+    }
+
+    public synchronized void send(byte[] data, long notBefore) {
+        long start = (notBefore - wireFree > 0) ? notBefore : wireFree;
+        chunks.add(new Chunk(data, start));
+        wireFree = start + data.length * nanosPerByte;
+        notifyAll();
+    }
+
+    public synchronized void discard() {
+        chunks.clear();
+        wireFree = System.nanoTime();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        chunks.clear();
+        notifyAll();
+    }
+
+    public synchronized boolean isDrained() {
+        return chunks.isEmpty();
+    }
+
+    public synchronized int available() {
+        Chunk c = chunks.peek();
+        return (c == null) ? 0 : c.due(System.nanoTime());
+    }
+
+    public synchronized int read(byte[] b, int off, int len, int timeoutMillis) throws InterruptedIOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            if (closed) {
+                return -1;
+            }
+
+            long now = System.nanoTime();
+            long wait = deadline - now;
+            if (wait <= 0) {
+                return -1;
+            }
+
+            Chunk c = chunks.peek();
+            if (c != null) {
+                int due = c.due(now);
+                if (due > 0) {
+                    int n = Math.min(due, len);
+                    System.arraycopy(c.data, c.pos, b, off, n);
+                    c.pos += n;
+                    if (c.pos == c.data.length) {
+                        chunks.poll();
+                    }
+                    return n;
+                }
+                wait = Math.min(wait, Math.max(1, c.nextDue() - now));
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private class Chunk {
+        private final byte[] data;
+        private final long start;
+        private int pos;
+
+        private Chunk(byte[] data, long start) {
+            this.data = data;
+            this.start = start;
+        }
+
+        private int due(long now) {
+            long elapsed = now - start;
+            if (elapsed < 0) {
+                return 0;
+            }
+            if (nanosPerByte == 0) {
+                return data.length - pos;
+            }
+            long arrived = Math.min(data.length, elapsed / nanosPerByte);
+            return (int) Math.max(0, arrived - pos);
+        }
+
+        private long nextDue() {
+            return start + (pos + 1) * nanosPerByte;
+        }
+    }
+
+}
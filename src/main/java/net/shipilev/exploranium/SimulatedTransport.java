@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * In-process transport talking to {@link DeviceSimulator}.
+ * Selected with port names like "sim" or "sim:baud=0,dose=100000".
+ */
+public class SimulatedTransport implements Transport {
+
+    private final String name;
+    private final SimulatedLine line;
+    private final DeviceSimulator device;
+    private final InputStream in;
+    private final OutputStream out;
+    private volatile int receiveTimeout = 1000;
+
+    public SimulatedTransport(String name, Config config) {
+        this.name = name;
+        this.line = new SimulatedLine(config.baud);
+        this.device = new DeviceSimulator(config, line);
+        this.in = new LineInputStream();
+        this.out = new DeviceOutputStream();
+    }
+
+    public DeviceSimulator getDevice() {
+        return device;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void setReceiveTimeout(int millis) {
+        receiveTimeout = millis;
+    }
+
+    @Override
+    public void close() {
+        line.close();
+    }
+
+    private class LineInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int r = line.read(single, 0, 1, receiveTimeout);
+            return (r == -1) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return line.read(b, off, len, receiveTimeout);
+        }
+
+        @Override
+        public int available() {
+            return line.available();
+        }
+    }
+
+    private class DeviceOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            device.receive(b & 0xFF);
+        }
+    }
+
+    public static class Config {
+        /** Line speed, 0 means unthrottled. */
+        public int baud = 2400;
+
+        /** Extra one-way latency per host write, milliseconds. */
+        public double latency = 0;
+
+        /** Scale for device-side delays: counter integration, spectrum dwell, button press. */
+        public double scale = 1.0;
+
+        /** Counter integration time, milliseconds. */
+        public int counterDelay = 1800;
+
+        /** Gamma count rate, counts per second. */
+        public double cps = 25;
+
+        /** Neutron count rate, counts per second. */
+        public double neutronCps = 0.05;
+
+        /** Extra gamma rate from a source brought in later, counts per second. */
+        public double source = 0;
+
+        /** Counter readings before the source shows up. */
+        public int sourceAfter = 0;
+
+        /** Probability to lose every byte sent by the device. */
+        public double drop = 0;
+
+        /** Records in diagnostic/alarm log. */
+        public int diag = 16;
+
+        /** Records in accumulated dose log. */
+        public int dose = 256;
+
+        public long seed = 42;
+
+        public static Config parse(String spec) {
+            Config c = new Config();
+            int idx = spec.indexOf(':');
+            if (idx == -1) {
+                return c;
+            }
+            for (String kv : spec.substring(idx + 1).split(",")) {
+                if (kv.isEmpty()) {
+                    continue;
+                }
+                String[] pair = kv.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Simulator option should be key=value: " + kv);
+                }
+                String k = pair[0].trim();
+                String v = pair[1].trim();
+                if (k.equals("baud")) {
+                    c.baud = Integer.valueOf(v);
+                } else if (k.equals("latency")) {
+                    c.latency = Double.valueOf(v);
+                } else if (k.equals("scale")) {
+                    c.scale = Double.valueOf(v);
+                } else if (k.equals("counterDelay")) {
+                    c.counterDelay = Integer.valueOf(v);
+                } else if (k.equals("cps")) {
+                    c.cps = Double.valueOf(v);
+                } else if (k.equals("neutronCps")) {
+                    c.neutronCps = Double.valueOf(v);
+                } else if (k.equals("source")) {
+                    c.source = Double.valueOf(v);
+                } else if (k.equals("sourceAfter")) {
+                    c.sourceAfter = Integer.valueOf(v);
+                } else if (k.equals("drop")) {
+                    c.drop = Double.valueOf(v);
+                } else if (k.equals("diag")) {
+                    c.diag = Integer.valueOf(v);
+                } else if (k.equals("dose")) {
+                    c.dose = Integer.valueOf(v);
+                } else if (k.equals("seed")) {
+                    c.seed = Long.valueOf(v);
+                } else {
+                    throw new IllegalArgumentException("Unknown simulator option: " + k);
+                }
+            }
+            return c;
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+/**
+ * Incremental spectrum analysis: background, peaks and energy calibration.
+ *
+ * Every sweep is folded into an exponentially weighted spectrum, so recent
+ * sweeps dominate and a drifting peak shows up within a few sweeps. The
+ * background is estimated by iterative clipping of the smoothed spectrum on
+ * log scale, peaks are the significant local maxima above background, with
+ * centroids interpolated between channels. Peaks are matched to the ones found after
+ * the previous sweep, so each keeps its identity and reports its drift.
+ * With a reference line energy, the gain is pulled towards the value that
+ * puts the strongest peak at that energy. All state is preallocated.
+ */
+public class SpectrumAnalyzer {
+
+    /** Local maxima must stand out by this many sigmas above background. */
+    public static final double SIGNIFICANCE = 3.0;
+
+    /** Widest clipping window for background estimation, channels. */
+    public static final int CLIP_WINDOW = 6;
+
+    /** Peaks further apart than this are different peaks, channels. */
+    public static final double MATCH_DISTANCE = 1.5;
+
+    private final int channels;
+    private final double decay;
+    private final double[] weighted;
+    private final double[] smooth;
+    private final double[] background;
+    private final Peak[] peaks;
+    private final Peak[] previous;
+    private int peakCount;
+    private int previousCount;
+    private int nextId = 1;
+    private long sweeps;
+
+    private double gain;
+    private double offset;
+    private final double reference;
+
+    /**
+     * @param halfLife sweeps after which a sweep has half of its weight
+     * @param gain calibration gain, keV per channel, 0 if unknown
+     * @param offset calibration offset, keV
+     * @param reference energy of the strongest line for auto-calibration, keV, NaN if none
+     */
+    public SpectrumAnalyzer(int channels, double halfLife, double gain, double offset, double reference) {
+        this.channels = channels;
+        this.decay = Math.pow(0.5, 1.0 / halfLife);
+        this.weighted = new double[channels];
+        this.smooth = new double[channels];
+        this.background = new double[channels];
+        this.peaks = new Peak[channels];
+        this.previous = new Peak[channels];
+        for (int i = 0; i < channels; i++) {
+            peaks[i] = new Peak();
+            previous[i] = new Peak();
+        }
+        this.gain = gain;
+        this.offset = offset;
+        this.reference = reference;
+    }
+
+    public void add(int[] sweep) {
+        for (int ch = 0; ch < channels; ch++) {
+            weighted[ch] = weighted[ch] * decay + sweep[ch];
+        }
+        sweeps++;
+        analyze();
+    }
+
+    private void analyze() {
+        // [1 2 1] smoothing, edges reflected
+        for (int ch = 0; ch < channels; ch++) {
+            double l = weighted[(ch == 0) ? 1 : ch - 1];
+            double r = weighted[(ch == channels - 1) ? channels - 2 : ch + 1];
+            smooth[ch] = (l + 2 * weighted[ch] + r) / 4;
+            background[ch] = Math.log(smooth[ch] + 1);
+        }
+
+        // clip peaks off, narrowing the window; log scale follows the
+        // exponential continuum instead of cutting corners above it
+        for (int w = CLIP_WINDOW; w >= 1; w--) {
+            for (int ch = w; ch < channels - w; ch++) {
+                double avg = (background[ch - w] + background[ch + w]) / 2;
+                if (avg < background[ch]) {
+                    background[ch] = avg;
+                }
+            }
+        }
+        for (int ch = 0; ch < channels; ch++) {
+            background[ch] = Math.exp(background[ch]) - 1;
+        }
+
+        // swap current peaks to previous, keeping objects
+        for (int i = 0; i < peakCount; i++) {
+            Peak p = previous[i];
+            previous[i] = peaks[i];
+            peaks[i] = p;
+        }
+        previousCount = peakCount;
+        peakCount = 0;
+
+        for (int ch = 1; ch < channels - 1; ch++) {
+            double y = smooth[ch];
+            if (y < smooth[ch - 1] || y <= smooth[ch + 1]) {
+                continue;
+            }
+            double net = y - background[ch];
+            double sigma = Math.sqrt(Math.max(background[ch], 1.0));
+            if (net < SIGNIFICANCE * sigma) {
+                continue;
+            }
+
+            double yl = smooth[ch - 1];
+            double yr = smooth[ch + 1];
+            double denom = yl - 2 * y + yr;
+            double pos = ch + ((denom == 0) ? 0 : 0.5 * (yl - yr) / denom);
+
+            Peak p = peaks[peakCount++];
+            p.position = pos;
+            p.net = net;
+            p.significance = net / sigma;
+        }
+
+        track();
+        calibrate();
+    }
+
+    /**
+     * Greedy nearest-first: the closest pair of current and previous peaks is
+     * matched first, and a previous peak passes its identity on only once.
+     */
+    private void track() {
+        for (int i = 0; i < peakCount; i++) {
+            peaks[i].matched = false;
+        }
+        for (int j = 0; j < previousCount; j++) {
+            previous[j].matched = false;
+        }
+
+        while (true) {
+            Peak cur = null;
+            Peak prev = null;
+            double best = MATCH_DISTANCE;
+            for (int i = 0; i < peakCount; i++) {
+                if (peaks[i].matched) {
+                    continue;
+                }
+                for (int j = 0; j < previousCount; j++) {
+                    if (previous[j].matched) {
+                        continue;
+                    }
+                    double d = Math.abs(previous[j].position - peaks[i].position);
+                    if (d < best) {
+                        best = d;
+                        cur = peaks[i];
+                        prev = previous[j];
+                    }
+                }
+            }
+            if (cur == null) {
+                break;
+            }
+            cur.matched = true;
+            prev.matched = true;
+            cur.id = prev.id;
+            cur.firstPosition = prev.firstPosition;
+            cur.firstSweep = prev.firstSweep;
+        }
+
+        for (int i = 0; i < peakCount; i++) {
+            Peak p = peaks[i];
+            if (!p.matched) {
+                p.id = nextId++;
+                p.firstPosition = p.position;
+                p.firstSweep = sweeps;
+            }
+        }
+    }
+
+    private void calibrate() {
+        if (Double.isNaN(reference) || peakCount == 0) {
+            return;
+        }
+        Peak strongest = peaks[0];
+        for (int i = 1; i < peakCount; i++) {
+            if (peaks[i].net > strongest.net) {
+                strongest = peaks[i];
+            }
+        }
+        if (strongest.position <= 0) {
+            return;
+        }
+        double target = (reference - offset) / strongest.position;
+        gain = (gain == 0) ? target : gain + (1 - decay) * (target - gain);
+    }
+
+    public long sweeps() {
+        return sweeps;
+    }
+
+    public int peakCount() {
+        return peakCount;
+    }
+
+    public Peak peak(int idx) {
+        return peaks[idx];
+    }
+
+    public double background(int ch) {
+        return background[ch];
+    }
+
+    public boolean isCalibrated() {
+        return gain != 0;
+    }
+
+    public double gain() {
+        return gain;
+    }
+
+    public double offset() {
+        return offset;
+    }
+
+    public double energy(double channel) {
+        return offset + gain * channel;
+    }
+
+    public static class Peak {
+        private int id;
+        private double position;
+        private double firstPosition;
+        private long firstSweep;
+        private double net;
+        private double significance;
+        private boolean matched;
+
+        public int getId() {
+            return id;
+        }
+
+        /** Centroid, fractional channel index. */
+        public double getPosition() {
+            return position;
+        }
+
+        /** Drift since the peak was first seen, channels. */
+        public double getShift() {
+            return position - firstPosition;
+        }
+
+        public long getFirstSweep() {
+            return firstSweep;
+        }
+
+        /** Counts above background at the centroid channel, in weighted units. */
+        public double getNet() {
+            return net;
+        }
+
+        public double getSignificance() {
+            return significance;
+        }
+    }
+
+}
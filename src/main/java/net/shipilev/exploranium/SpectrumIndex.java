@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.util.Arrays;
+
+/**
+ * Cumulative per-channel sums over a sequence of spectrum sweeps.
+ *
+ * Row {@code k} holds the sum of the first {@code k} sweeps, so the spectrum
+ * of any run of sweeps is the difference of two rows, and a time window is
+ * two binary searches over sweep times plus that difference. Sweeps are
+ * expected in acquisition order, with non-decreasing start and end times.
+ */
+public class SpectrumIndex {
+
+    private final int channels;
+    private long[] prefix;
+    private long[] starts;
+    private long[] ends;
+    private int count;
+
+    public SpectrumIndex(int channels) {
+        this.channels = channels;
+        this.prefix = new long[16 * channels];
+        this.starts = new long[16];
+        this.ends = new long[16];
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long start(int idx) {
+        return starts[idx];
+    }
+
+    public long end(int idx) {
+        return ends[idx];
+    }
+
+    /**
+     * Appends a sweep.
+     */
+    public void add(long start, long end, int[] counts) {
+        if (count + 1 >= starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            ends = Arrays.copyOf(ends, ends.length * 2);
+            prefix = Arrays.copyOf(prefix, prefix.length * 2);
+        }
+        int prev = count * channels;
+        int row = prev + channels;
+        for (int ch = 0; ch < channels; ch++) {
+            prefix[row + ch] = prefix[prev + ch] + counts[ch];
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    /**
+     * Spectrum of sweeps [from, to).
+     */
+    public void sum(int from, int to, long[] dst) {
+        int lo = from * channels;
+        int hi = to * channels;
+        for (int ch = 0; ch < channels; ch++) {
+            dst[ch] = prefix[hi + ch] - prefix[lo + ch];
+        }
+    }
+
+    /**
+     * Spectrum of sweeps fully inside [from, to] milliseconds.
+     * @return number of sweeps in the window
+     */
+    public int window(long from, long to, long[] dst) {
+        int lo = firstStartingAt(from);
+        int hi = Math.max(lo, firstEndingAfter(to));
+        sum(lo, hi, dst);
+        return hi - lo;
+    }
+
+    /**
+     * Spectrum of the sweeps that started in the last {@code millis}
+     * before {@code now}.
+     */
+    public int last(long millis, long now, long[] dst) {
+        return window(now - millis, Long.MAX_VALUE, dst);
+    }
+
+    private int firstStartingAt(long time) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int firstEndingAfter(long time) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+}
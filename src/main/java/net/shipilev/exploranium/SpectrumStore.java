@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only file of spectrum sweeps, memory-mapped.
+ *
+ * The file starts with a header: magic, version, channel count and number
+ * of committed sweeps. Every sweep is a fixed-size slot: start and end time
+ * (ms), seconds per channel, then both 16-bit words of every channel group.
+ * The file is grown and remapped in chunks; the sweep count in the header is
+ * updated only after the slot is written, so a torn append is never seen.
+ */
+public class SpectrumStore {
+
+    public static final int MAGIC = 0x50535247; // "GRSP"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int CHUNK = 1024;
+
+    private static final int OFF_CHANNELS = 8;
+    private static final int OFF_COUNT = 12;
+
+    private static final int SLOT_START = 0;
+    private static final int SLOT_END = 8;
+    private static final int SLOT_DWELL = 16;
+    private static final int SLOT_COUNTS = 20;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int channels;
+    private final int slotSize;
+    private final SpectrumIndex index;
+    private final int[] scratch;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int count;
+
+    public SpectrumStore(File file, int channels) throws IOException {
+        this.index = new SpectrumIndex(channels);
+        this.scratch = new int[channels];
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+
+        if (raf.length() == 0) {
+            this.channels = channels;
+            this.slotSize = slotSize(channels);
+            remap(CHUNK);
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(OFF_CHANNELS, channels);
+            map.putInt(OFF_COUNT, 0);
+        } else {
+            if (raf.length() < HEADER_SIZE) {
+                raf.close();
+                throw new IOException("Not a spectrum file: " + file);
+            }
+            MappedByteBuffer h = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            h.order(ByteOrder.LITTLE_ENDIAN);
+            if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION) {
+                raf.close();
+                throw new IOException("Not a spectrum file: " + file);
+            }
+            if (h.getInt(OFF_CHANNELS) != channels) {
+                raf.close();
+                throw new IOException("Spectrum file has " + h.getInt(OFF_CHANNELS) + " channels, expected " + channels + ": " + file);
+            }
+            this.channels = channels;
+            this.slotSize = slotSize(channels);
+            int stored = h.getInt(OFF_COUNT);
+            remap(Math.max(stored, (int) ((raf.length() - HEADER_SIZE) / slotSize)));
+            this.count = stored;
+            for (int i = 0; i < count; i++) {
+                for (int ch = 0; ch < channels; ch++) {
+                    scratch[ch] = counts(i, ch);
+                }
+                index.add(start(i), end(i), scratch);
+            }
+        }
+    }
+
+    private static int slotSize(int channels) {
+        return SLOT_COUNTS + channels * 4;
+    }
+
+    private void remap(int slots) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * slotSize);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        capacity = slots;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Appends a sweep, {@code c1} and {@code c2} hold the two words of every channel.
+     */
+    public void append(long start, long end, int secsPerChannel, int[] c1, int[] c2) throws IOException {
+        if (c1.length != channels || c2.length != channels) {
+            throw new IllegalArgumentException("Expected " + channels + " channels");
+        }
+        if (count == capacity) {
+            remap(capacity + CHUNK);
+        }
+
+        int off = slot(count);
+        map.putLong(off + SLOT_START, start);
+        map.putLong(off + SLOT_END, end);
+        map.putInt(off + SLOT_DWELL, secsPerChannel);
+        int p = off + SLOT_COUNTS;
+        for (int ch = 0; ch < channels; ch++) {
+            map.putShort(p, (short) c1[ch]);
+            map.putShort(p + 2, (short) c2[ch]);
+            p += 4;
+        }
+
+        count++;
+        map.putInt(OFF_COUNT, count);
+        index.add(start, end, c1);
+    }
+
+    private int slot(int idx) {
+        return HEADER_SIZE + idx * slotSize;
+    }
+
+    public long start(int idx) {
+        return map.getLong(slot(idx) + SLOT_START);
+    }
+
+    public long end(int idx) {
+        return map.getLong(slot(idx) + SLOT_END);
+    }
+
+    public int secsPerChannel(int idx) {
+        return map.getInt(slot(idx) + SLOT_DWELL);
+    }
+
+    public int counts(int idx, int ch) {
+        return map.getShort(slot(idx) + SLOT_COUNTS + ch * 4) & 0xFFFF;
+    }
+
+    public int counts2(int idx, int ch) {
+        return map.getShort(slot(idx) + SLOT_COUNTS + ch * 4 + 2) & 0xFFFF;
+    }
+
+    /**
+     * Prefix sums over the first words of all stored sweeps, kept up to date on append.
+     */
+    public SpectrumIndex index() {
+        return index;
+    }
+
+    public void force() {
+        map.force();
+    }
+
+    public void close() throws IOException {
+        map.force();
+        raf.close();
+    }
+
+}
@@ -0,0 +1,437 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Reusable char buffer for building output lines without going through
+ * {@link java.util.Formatter}.
+ *
+ * Numbers are rendered straight into the buffer, padded like the printf
+ * conversions they replace: {@code append(v, 4)} is "%4d", negative widths
+ * align left like "%-4d". Dates are rendered from cached fields: the text of
+ * {@link Date#toString()} is kept for the current minute and only the seconds
+ * are patched, the ISO date is kept for the current day.
+ */
+public class TextBuffer {
+
+    private static final char[] DIGITS = new char[200];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGITS[i * 2] = (char) ('0' + i / 10);
+            DIGITS[i * 2 + 1] = (char) ('0' + i % 10);
+        }
+    }
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    private char[] buf;
+    private int size;
+
+    private long dateMinute = Long.MIN_VALUE;
+    private char[] dateChars;
+    private boolean datePatchable;
+
+    private long isoDay = Long.MIN_VALUE;
+    private final char[] isoChars = new char[10];
+
+    public TextBuffer() {
+        this(256);
+    }
+
+    public TextBuffer(int capacity) {
+        buf = new char[capacity];
+    }
+
+    public TextBuffer reset() {
+        size = 0;
+        return this;
+    }
+
+    public int length() {
+        return size;
+    }
+
+    public char charAt(int idx) {
+        return buf[idx];
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            char[] nb = new char[Math.max(buf.length * 2, size + extra)];
+            System.arraycopy(buf, 0, nb, 0, size);
+            buf = nb;
+        }
+    }
+
+    public TextBuffer append(char c) {
+        ensure(1);
+        buf[size++] = c;
+        return this;
+    }
+
+    public TextBuffer append(String s) {
+        int len = s.length();
+        ensure(len);
+        s.getChars(0, len, buf, size);
+        size += len;
+        return this;
+    }
+
+    /**
+     * Same as "%Ns", or "%-Ns" for negative widths.
+     */
+    public TextBuffer append(String s, int width) {
+        int pad = Math.abs(width) - s.length();
+        if (width > 0) {
+            fill(' ', pad);
+        }
+        append(s);
+        if (width < 0) {
+            fill(' ', pad);
+        }
+        return this;
+    }
+
+    public TextBuffer fill(char c, int count) {
+        if (count > 0) {
+            ensure(count);
+            for (int i = 0; i < count; i++) {
+                buf[size++] = c;
+            }
+        }
+        return this;
+    }
+
+    public TextBuffer newLine() {
+        return append('\n');
+    }
+
+    public TextBuffer append(long v) {
+        return append(v, 0);
+    }
+
+    /**
+     * Same as "%Nd", or "%-Nd" for negative widths.
+     */
+    public TextBuffer append(long v, int width) {
+        int len = digits(v) + ((v < 0) ? 1 : 0);
+        int pad = Math.abs(width) - len;
+        if (width > 0) {
+            fill(' ', pad);
+        }
+        putLong(v, len);
+        if (width < 0) {
+            fill(' ', pad);
+        }
+        return this;
+    }
+
+    /**
+     * Same as "%0Nd".
+     */
+    public TextBuffer appendZeroPadded(long v, int width) {
+        if (v < 0) {
+            append('-');
+            width--;
+        }
+        if (v >= 0 && v < 100 && width == 2) {
+            ensure(2);
+            int i = (int) v * 2;
+            buf[size++] = DIGITS[i];
+            buf[size++] = DIGITS[i + 1];
+            return this;
+        }
+        int len = digits(v);
+        fill('0', width - len);
+        if (v < 0) {
+            // digits only, the sign is out already
+            ensure(len);
+            int end = size + len;
+            int p = end;
+            long q = v;
+            while (q != 0) {
+                buf[--p] = (char) ('0' - q % 10);
+                q /= 10;
+            }
+            size = end;
+            return this;
+        }
+        putLong(v, len);
+        return this;
+    }
+
+    /**
+     * Fixed-point number: {@code appendFixed(136, 2)} is "1.36".
+     */
+    public TextBuffer appendFixed(long scaled, int decimals) {
+        long pow = 1;
+        for (int i = 0; i < decimals; i++) {
+            pow *= 10;
+        }
+        if (scaled < 0) {
+            append('-');
+        }
+        long abs = Math.abs(scaled);
+        append(abs / pow);
+        if (decimals > 0) {
+            append('.');
+            appendZeroPadded(abs % pow, decimals);
+        }
+        return this;
+    }
+
+    private static int digits(long v) {
+        int n = 1;
+        long q = v / 10;
+        while (q != 0) {
+            n++;
+            q /= 10;
+        }
+        return n;
+    }
+
+    private void putLong(long v, int len) {
+        ensure(len);
+        int end = size + len;
+        int p = end;
+        if (v < 0) {
+            buf[size] = '-';
+            while (v != 0) {
+                buf[--p] = (char) ('0' - v % 10);
+                v /= 10;
+            }
+        } else {
+            while (v >= 100) {
+                int r = (int) (v % 100) * 2;
+                v /= 100;
+                buf[--p] = DIGITS[r + 1];
+                buf[--p] = DIGITS[r];
+            }
+            if (v >= 10) {
+                int r = (int) v * 2;
+                buf[--p] = DIGITS[r + 1];
+                buf[--p] = DIGITS[r];
+            } else {
+                buf[--p] = (char) ('0' + v);
+            }
+        }
+        size = end;
+    }
+
+    /**
+     * Device timestamp from raw record bytes, "2013/02/08 23:12:57" with the
+     * default separators.
+     */
+    public TextBuffer appendDeviceTime(ByteBuffer b, int off, char dateSep, char timeSep) {
+        append(2000 + b.get(off), 4).append(dateSep);
+        appendZeroPadded(b.get(off + 1), 2).append(dateSep);
+        appendZeroPadded(b.get(off + 2), 2).append(timeSep);
+        appendZeroPadded(b.get(off + 3), 2).append(':');
+        appendZeroPadded(b.get(off + 4), 2).append(':');
+        appendZeroPadded(b.get(off + 5), 2);
+        return this;
+    }
+
+    /**
+     * Same text as {@code new Date(millis).toString()}.
+     */
+    public TextBuffer appendDate(long millis) {
+        long minute = floorDiv(millis, MINUTE);
+        if (minute != dateMinute) {
+            String s = new Date(minute * MINUTE).toString();
+            // "EEE MMM dd HH:mm:ss zzz yyyy", the seconds are at 17..18
+            datePatchable = s.length() > 19 &&
+                    s.charAt(16) == ':' && s.charAt(17) == '0' && s.charAt(18) == '0';
+            dateChars = s.toCharArray();
+            dateMinute = minute;
+        }
+        if (!datePatchable) {
+            return append(new Date(millis).toString());
+        }
+
+        ensure(dateChars.length);
+        System.arraycopy(dateChars, 0, buf, size, dateChars.length);
+        int sec = (int) ((millis - minute * MINUTE) / 1000) * 2;
+        buf[size + 17] = DIGITS[sec];
+        buf[size + 18] = DIGITS[sec + 1];
+        size += dateChars.length;
+        return this;
+    }
+
+    /**
+     * UTC time in ISO 8601, "2013-02-08T23:12:57.123Z".
+     */
+    public TextBuffer appendIsoTime(long millis) {
+        long day = floorDiv(millis, DAY);
+        if (day != isoDay) {
+            int ymd = DeviceTime.civil(day);
+            int y = ymd / 10000;
+            if (y < 0 || y > 9999) {
+                append(y).append('-');
+                appendZeroPadded(ymd / 100 % 100, 2).append('-');
+                appendZeroPadded(ymd % 100, 2);
+                return appendIsoTimeOfDay(millis - day * DAY);
+            }
+            putDigits(isoChars, 0, y / 100);
+            putDigits(isoChars, 2, y % 100);
+            isoChars[4] = '-';
+            putDigits(isoChars, 5, ymd / 100 % 100);
+            isoChars[7] = '-';
+            putDigits(isoChars, 8, ymd % 100);
+            isoDay = day;
+        }
+        ensure(isoChars.length);
+        System.arraycopy(isoChars, 0, buf, size, isoChars.length);
+        size += isoChars.length;
+        return appendIsoTimeOfDay(millis - day * DAY);
+    }
+
+    private TextBuffer appendIsoTimeOfDay(long ms) {
+        append('T');
+        appendZeroPadded(ms / 3600000, 2).append(':');
+        appendZeroPadded(ms / 60000 % 60, 2).append(':');
+        appendZeroPadded(ms / 1000 % 60, 2).append('.');
+        appendZeroPadded(ms % 1000, 3).append('Z');
+        return this;
+    }
+
+    private static void putDigits(char[] dst, int off, int v) {
+        dst[off] = DIGITS[v * 2];
+        dst[off + 1] = DIGITS[v * 2 + 1];
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y < 0) ? q - 1 : q;
+    }
+
+    /**
+     * Quoted JSON string.
+     */
+    public TextBuffer appendJson(String s) {
+        append('"');
+        for (int i = 0; i < s.length(); i++) {
+            appendJsonChar(s.charAt(i));
+        }
+        return append('"');
+    }
+
+    public TextBuffer appendJson(char[] s, int off, int len) {
+        append('"');
+        for (int i = off; i < off + len; i++) {
+            appendJsonChar(s[i]);
+        }
+        return append('"');
+    }
+
+    private void appendJsonChar(char c) {
+        if (c == '"' || c == '\\') {
+            append('\\').append(c);
+        } else if (c < 0x20) {
+            append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+        } else {
+            append(c);
+        }
+    }
+
+    /**
+     * CSV cell, quoted only when needed.
+     */
+    public TextBuffer appendCsv(String s) {
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            quote = needsCsvQuote(s.charAt(i));
+        }
+        if (!quote) {
+            return append(s);
+        }
+        append('"');
+        for (int i = 0; i < s.length(); i++) {
+            appendCsvQuoted(s.charAt(i));
+        }
+        return append('"');
+    }
+
+    public TextBuffer appendCsv(char[] s, int off, int len) {
+        boolean quote = false;
+        for (int i = off; i < off + len && !quote; i++) {
+            quote = needsCsvQuote(s[i]);
+        }
+        if (!quote) {
+            ensure(len);
+            System.arraycopy(s, off, buf, size, len);
+            size += len;
+            return this;
+        }
+        append('"');
+        for (int i = off; i < off + len; i++) {
+            appendCsvQuoted(s[i]);
+        }
+        return append('"');
+    }
+
+    private static boolean needsCsvQuote(char c) {
+        return c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+
+    private void appendCsvQuoted(char c) {
+        if (c == '"') {
+            append('"');
+        }
+        append(c);
+    }
+
+    public void writeTo(Writer w) throws IOException {
+        w.write(buf, 0, size);
+    }
+
+    public void writeTo(PrintWriter pw) {
+        pw.write(buf, 0, size);
+    }
+
+    /**
+     * Puts the text as ASCII bytes, chars beyond are replaced with '?'.
+     * @return false if the buffer has no room, nothing is put then
+     */
+    public boolean putAscii(ByteBuffer dst) {
+        if (dst.remaining() < size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            char c = buf[i];
+            dst.put((byte) ((c < 0x80) ? c : '?'));
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, size);
+    }
+
+}
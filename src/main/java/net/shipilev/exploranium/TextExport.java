@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends log records and live samples to a file through a {@link LineFormatter}
+ * chosen by the file name. Header lines go only into a file that was empty.
+ * Lines are put as ASCII into a {@link BatchedFileOutput}, drained every
+ * {@link #DRAIN_INTERVAL}.
+ */
+public class TextExport extends BatchedFileOutput implements RecordSink, SampleListener {
+
+    private static final int BATCH = 64 * 1024;
+    private static final long DRAIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final LineFormatter formatter;
+    private boolean empty;
+
+    public TextExport(File file, int[] windows) throws IOException {
+        this(file, LineFormatter.forFile(file, windows), !file.exists() || file.length() == 0);
+    }
+
+    private TextExport(File file, LineFormatter formatter, boolean empty) throws IOException {
+        super(file, true, BATCH, DRAIN_INTERVAL, "export-drain");
+        this.formatter = formatter;
+        this.empty = empty;
+    }
+
+    /**
+     * Serial for the records that follow, until the next log prologue.
+     */
+    public synchronized void setSerial(int serial) {
+        formatter.setSerial(serial);
+    }
+
+    @Override
+    public synchronized void onRecord(BaseReader.Record r) {
+        if (empty) {
+            put(formatter.recordHeader());
+            empty = false;
+        }
+        put(formatter.record(r));
+        drainIfDue();
+    }
+
+    @Override
+    public synchronized void onSample(LiveSample s) {
+        if (empty) {
+            put(formatter.sampleHeader());
+            empty = false;
+        }
+        put(formatter.sample(s));
+        drainIfDue();
+    }
+
+    @Override
+    public void onDropped(long count) {
+        // gaps are visible in sample timestamps
+    }
+
+    private void put(TextBuffer line) {
+        if (line == null) {
+            return;
+        }
+        if (!line.putAscii(buf)) {
+            drain();
+            if (!line.putAscii(buf)) {
+                // longer than a batch, cannot happen with our lines
+                throw new IllegalStateException("Line too long: " + line.length());
+            }
+        }
+    }
+
+}
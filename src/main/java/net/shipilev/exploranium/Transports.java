@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.UnsupportedCommOperationException;
+
+import java.io.IOException;
+
+public class Transports {
+
+    public static final String SIMULATOR_PREFIX = "sim";
+
+    public static boolean isSimulated(String port) {
+        return port.equals(SIMULATOR_PREFIX) || port.startsWith(SIMULATOR_PREFIX + ":");
+    }
+
+    public static Transport open(String port) {
+        if (isSimulated(port)) {
+            return new SimulatedTransport(port, SimulatedTransport.Config.parse(port));
+        }
+
+        if (ReplayTransport.isReplay(port)) {
+            try {
+                return ReplayTransport.open(port);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        try {
+            return new SerialTransport(port);
+        } catch (NoSuchPortException e) {
+            throw new RuntimeException(e);
+        } catch (PortInUseException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedCommOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
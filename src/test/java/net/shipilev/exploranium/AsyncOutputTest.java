@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+public class AsyncOutputTest {
+
+    private static class CollectingSink implements OutputSink {
+        private final StringBuilder sb = new StringBuilder();
+        private int flushes;
+        private boolean closed;
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            sb.append(buf, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void deliversEverythingOnClose() {
+        CollectingSink sink = new CollectingSink();
+        AsyncOutput out = new AsyncOutput(1000, sink);
+        PrintWriter pw = new PrintWriter(out, true);
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            pw.println("line " + i);
+            expected.append("line ").append(i).append(System.getProperty("line.separator"));
+        }
+        pw.close();
+
+        Assert.assertTrue(sink.closed);
+        Assert.assertEquals(expected.toString(), sink.sb.toString());
+        Assert.assertTrue("Too many flushes: " + sink.flushes, sink.flushes < 100);
+    }
+
+    @Test
+    public void waitsForSlowSinks() {
+        CollectingSink sink = new CollectingSink() {
+            @Override
+            public void write(char[] buf, int off, int len) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    // keep going
+                }
+                super.write(buf, off, len);
+            }
+        };
+        AsyncOutput out = new AsyncOutput(1000, sink);
+
+        // well beyond the pending limit, nothing may be dropped
+        char[] line = new char[1000];
+        Arrays.fill(line, 'x');
+        line[line.length - 1] = '\n';
+        for (int i = 0; i < 10000; i++) {
+            out.write(line, 0, line.length);
+        }
+        out.close();
+
+        Assert.assertEquals(10000 * line.length, sink.sb.length());
+        Assert.assertEquals(-1, sink.sb.indexOf("Warning"));
+    }
+
+    @Test
+    public void rotation() throws IOException {
+        File dir = File.createTempFile("rotate", "");
+        dir.delete();
+        dir.mkdirs();
+        File f = new File(dir, "out.log");
+
+        OutputSinks.RotatingFileSink sink = new OutputSinks.RotatingFileSink(f, 100, 2);
+        char[] line = "0123456789012345678\n".toCharArray();
+        for (int i = 0; i < 30; i++) {
+            sink.write(line, 0, line.length);
+        }
+        sink.close();
+
+        Assert.assertEquals(100, new File(dir, "out.log.1").length());
+        Assert.assertEquals(100, new File(dir, "out.log.2").length());
+        Assert.assertFalse(new File(dir, "out.log.3").exists());
+        Assert.assertEquals(0, f.length());
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ChangeDetectorTest {
+
+    private static final long MILLIS = 1800;
+
+    private static int poisson(Random r, double mean) {
+        double l = Math.exp(-mean);
+        double p = 1.0;
+        int k = 0;
+        do {
+            k++;
+            p *= r.nextDouble();
+        } while (p > l);
+        return k - 1;
+    }
+
+    @Test
+    public void background() {
+        Random r = new Random(1);
+        ChangeDetector d = new ChangeDetector(5.0, 4);
+
+        int onsets = 0;
+        boolean last = false;
+        for (int i = 0; i < 20000; i++) {
+            d.add(poisson(r, 45), poisson(r, 0.09), MILLIS);
+            boolean alarm = d.isGammaAlarm() || d.isNeutronAlarm();
+            if (alarm && !last) {
+                onsets++;
+            }
+            last = alarm;
+        }
+        Assert.assertFalse(d.isLearning());
+        Assert.assertTrue("Too many false alarms: " + onsets, onsets <= 4);
+        Assert.assertEquals(25.0, d.getGammaBackground(), 1.0);
+    }
+
+    @Test
+    public void gammaSource() {
+        Random r = new Random(2);
+        ChangeDetector d = new ChangeDetector(5.0, 4);
+        for (int i = 0; i < 200; i++) {
+            d.add(poisson(r, 45), 0, MILLIS);
+        }
+        Assert.assertFalse(d.isGammaAlarm());
+
+        // background doubles, much sooner than the 5-sample average moves that far
+        int samples = 0;
+        while (!d.isGammaAlarm()) {
+            d.add(poisson(r, 90), 0, MILLIS);
+            samples++;
+        }
+        Assert.assertTrue("Took " + samples + " samples", samples <= 2);
+
+        // source removed, alarm clears
+        samples = 0;
+        while (d.isGammaAlarm()) {
+            d.add(poisson(r, 45), 0, MILLIS);
+            samples++;
+        }
+        Assert.assertTrue("Took " + samples + " samples", samples <= 30);
+        Assert.assertEquals(25.0, d.getGammaBackground(), 2.0);
+    }
+
+    @Test
+    public void neutronSource() {
+        Random r = new Random(3);
+        ChangeDetector d = new ChangeDetector(5.0, 4);
+        for (int i = 0; i < 200; i++) {
+            d.add(poisson(r, 45), poisson(r, 0.09), MILLIS);
+        }
+
+        // at the device threshold, 4 counts per 6 seconds
+        int samples = 0;
+        while (!d.isNeutronAlarm()) {
+            d.add(poisson(r, 45), poisson(r, 1.2), MILLIS);
+            samples++;
+        }
+        Assert.assertTrue("Took " + samples + " samples", samples <= 15);
+        Assert.assertFalse(d.isGammaAlarm());
+    }
+
+}
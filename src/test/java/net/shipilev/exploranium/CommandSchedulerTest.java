@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class CommandSchedulerTest {
+
+    private static class Recorder implements CommandScheduler.Handler {
+        int failures;
+
+        @Override
+        public void onResponse(FrameDecoder.Frame response, long queueDelay) {
+        }
+
+        @Override
+        public void onFailure(String reason, long queueDelay) {
+            failures++;
+        }
+    }
+
+    private static CommandScheduler.Request req(char cmd, CommandScheduler.Priority p, Recorder rec) {
+        return new CommandScheduler.Request((byte) cmd, 2, p, rec);
+    }
+
+    @Test
+    public void priorityThenDeadline() {
+        CommandScheduler s = new CommandScheduler(new LatencyHistogram());
+        Recorder rec = new Recorder();
+        s.submit(req('J', CommandScheduler.Priority.LOW, rec), 1, TimeUnit.HOURS);
+        s.submit(req('T', CommandScheduler.Priority.NORMAL, rec), 2, TimeUnit.HOURS);
+        s.submit(req('A', CommandScheduler.Priority.NORMAL, rec), 1, TimeUnit.HOURS);
+        s.submit(req('Y', CommandScheduler.Priority.HIGH, rec), 1, TimeUnit.HOURS);
+
+        long now = System.nanoTime();
+        Assert.assertEquals('Y', s.poll(now).getCommand());
+        Assert.assertEquals('A', s.poll(now).getCommand());
+        Assert.assertEquals('T', s.poll(now).getCommand());
+        Assert.assertEquals('J', s.poll(now).getCommand());
+        Assert.assertNull(s.poll(now));
+        Assert.assertEquals(0, rec.failures);
+    }
+
+    @Test
+    public void expiresAndRepeats() {
+        LatencyHistogram delays = new LatencyHistogram();
+        CommandScheduler s = new CommandScheduler(delays);
+        Recorder rec = new Recorder();
+        s.submit(req('A', CommandScheduler.Priority.HIGH, rec), 1, TimeUnit.SECONDS);
+        s.every(req('Y', CommandScheduler.Priority.LOW, rec), 10, TimeUnit.SECONDS);
+
+        long now = System.nanoTime();
+        long later = now + TimeUnit.SECONDS.toNanos(5);
+
+        // one-off request is past its deadline, periodic one is still fine
+        Assert.assertEquals('Y', s.poll(later).getCommand());
+        Assert.assertEquals(1, rec.failures);
+        Assert.assertEquals(1, s.expired());
+        Assert.assertTrue(delays.getMaxMicros() >= TimeUnit.SECONDS.toMicros(5));
+
+        Assert.assertNull(s.poll(later));
+        Assert.assertEquals('Y', s.poll(now + TimeUnit.SECONDS.toNanos(11)).getCommand());
+        Assert.assertEquals(0, s.pending());
+    }
+
+    @Test
+    public void purgesExpiredBehindHead() {
+        CommandScheduler s = new CommandScheduler(new LatencyHistogram());
+        Recorder rec = new Recorder();
+        s.submit(req('Y', CommandScheduler.Priority.HIGH, rec), 1, TimeUnit.HOURS);
+        s.submit(req('A', CommandScheduler.Priority.LOW, rec), 1, TimeUnit.SECONDS);
+        s.submit(req('J', CommandScheduler.Priority.LOW, rec), 1, TimeUnit.HOURS);
+
+        // the low priority request expires while a live one is at the head
+        long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        Assert.assertEquals('Y', s.poll(later).getCommand());
+        Assert.assertEquals(1, rec.failures);
+        Assert.assertEquals(1, s.expired());
+        Assert.assertEquals(1, s.pending());
+    }
+
+}
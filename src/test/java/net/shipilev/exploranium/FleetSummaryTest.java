@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class FleetSummaryTest {
+
+    /** 2013/01/01 00:00:00 */
+    private static final long START = 1356998400L;
+
+    private static final int HOURS = FleetSummary.CHUNK * 2 + 100;
+
+    private File dir;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("fleet", "");
+        dir.delete();
+        dir.mkdirs();
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void put(RecordBuffer buf, char op, long epochSecond, int a, int b) {
+        byte[] raw = new byte[RecordBuffer.RECORD_SIZE];
+        DeviceSimulator.putDate(raw, 0, epochSecond * 1000, TimeZone.getTimeZone("UTC"));
+        ByteBuffer bb = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        if (op == 'D') {
+            bb.putInt(6, a);
+            bb.putShort(10, (short) b);
+        } else if (op == 'A') {
+            bb.putInt(6, a);
+            bb.putInt(10, b);
+        } else {
+            bb.putShort(6, (short) a);
+            bb.putShort(8, (short) b);
+        }
+        raw[15] = (byte) op;
+        buf.add(raw, 0);
+    }
+
+    private RecordArchive archive() throws IOException {
+        RecordArchive archive = new RecordArchive(dir);
+        for (int serial = 1; serial <= 2; serial++) {
+            RecordBuffer buf = new RecordBuffer(HOURS + 16);
+            for (int h = 0; h < HOURS; h++) {
+                put(buf, 'D', START + h * 3600L, serial * 10, 3600);
+            }
+            // one alarm and a battery reading every 100 days
+            for (int d = 0; d < HOURS / 24; d += 100) {
+                put(buf, 'A', START + d * 86400L + 1, 100 + d, 1000);
+                put(buf, 'P', START + d * 86400L + 2, 140 - d / 100, 5);
+            }
+            archive.ingest(serial, buf);
+        }
+        return archive;
+    }
+
+    @Test
+    public void totals() throws Exception {
+        FleetSummary fs = FleetSummary.compute(archive(), Arrays.asList(1, 2),
+                Long.MIN_VALUE, Long.MAX_VALUE, FleetSummary.Period.MONTH, pool);
+
+        int marks = (HOURS / 24 + 99) / 100;
+        Assert.assertEquals(10L * HOURS, fs.device(1).dose());
+        Assert.assertEquals(20L * HOURS, fs.device(2).dose());
+        Assert.assertEquals(30L * HOURS, fs.fleet().dose());
+        Assert.assertEquals(3600L * HOURS * 2, fs.fleet().seconds());
+        Assert.assertEquals(15.0, fs.fleet().rate(), 1e-9);
+        Assert.assertEquals(marks * 2, fs.fleet().alarms());
+
+        // 1/100 V every 100 days
+        Assert.assertEquals(-0.01, fs.device(1).batteryTrend(), 1e-9);
+    }
+
+    @Test
+    public void periods() throws Exception {
+        RecordArchive archive = archive();
+        long to = START + 365 * 86400L - 1;
+
+        FleetSummary days = FleetSummary.compute(archive, Arrays.asList(1), START, to, FleetSummary.Period.DAY, pool);
+        Assert.assertEquals(365, days.fleet().periods());
+
+        FleetSummary months = FleetSummary.compute(archive, Arrays.asList(1), START, to, FleetSummary.Period.MONTH, pool);
+        Assert.assertEquals(12, months.fleet().periods());
+        Assert.assertEquals(10L * 24 * 365, months.fleet().dose());
+
+        // 2013/01/01 was Tuesday, so the first week is partial
+        FleetSummary weeks = FleetSummary.compute(archive, Arrays.asList(1), START, to, FleetSummary.Period.WEEK, pool);
+        Assert.assertEquals(53, weeks.fleet().periods());
+        Assert.assertEquals("2012/12/31", FleetSummary.Period.WEEK.label(FleetSummary.Period.WEEK.index(START)));
+        Assert.assertEquals("2013/01", FleetSummary.Period.MONTH.label(FleetSummary.Period.MONTH.index(START + 86399)));
+    }
+
+}
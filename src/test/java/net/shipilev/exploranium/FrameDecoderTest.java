@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class FrameDecoderTest {
+
+    private static InputStream trickle(byte[] data, final int chunk) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+
+    private static byte[] sequence(int count) {
+        byte[] r = new byte[count];
+        for (int i = 0; i < count; i++) {
+            r[i] = (byte) i;
+        }
+        return r;
+    }
+
+    @Test
+    public void frames() throws IOException {
+        byte[] data = sequence(160);
+        for (boolean direct : new boolean[]{false, true}) {
+            FrameDecoder d = new FrameDecoder(trickle(data, 7), 40, direct);
+            for (int f = 0; f < 10; f++) {
+                FrameDecoder.Frame frame = d.next(16);
+                Assert.assertEquals(16, frame.length());
+                Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(data, f * 16, f * 16 + 16), frame.toArray()));
+            }
+            Assert.assertEquals(-1, d.readByte());
+        }
+    }
+
+    @Test
+    public void mixed() throws IOException {
+        byte[] data = {(byte) 0xAA, 0x01, 0x02, 0x03, 0x04, (byte) 0xAA, (byte) 0xAA};
+        FrameDecoder d = new FrameDecoder(trickle(data, 2), 16, false);
+        Assert.assertEquals(0xAA, d.readByte());
+        FrameDecoder.Frame frame = d.next(4);
+        Assert.assertEquals(0x0201, frame.getUnsignedShort(0));
+        Assert.assertEquals(0x04030201, frame.getInt(0));
+        Assert.assertFalse(frame.isStop());
+        Assert.assertTrue(d.next(2).isStop());
+    }
+
+    @Test
+    public void truncated() {
+        FrameDecoder d = new FrameDecoder(trickle(sequence(20), 5), 64, false);
+        try {
+            d.next(16);
+            d.next(16);
+            Assert.fail("Should have failed");
+        } catch (IOException e) {
+            Assert.assertEquals("Unable to read byte 5 of 16", e.getMessage());
+        }
+        Assert.assertEquals(4, d.discard());
+    }
+
+    @Test
+    public void skipAvailable() throws IOException {
+        for (boolean direct : new boolean[]{false, true}) {
+            FrameDecoder d = new FrameDecoder(trickle(sequence(100), 7), 40, direct);
+            d.next(10);
+            Assert.assertEquals(90, d.skipAvailable());
+            Assert.assertEquals(0, d.skipAvailable());
+            Assert.assertEquals(-1, d.readByte());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void bulkReadTimeout() throws IOException {
+        for (boolean direct : new boolean[]{false, true}) {
+            // RXTX returns 0 from bulk reads when the timeout expires
+            InputStream in = new ByteArrayInputStream(sequence(20)) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return Math.max(0, super.read(b, off, Math.min(len, 5)));
+                }
+            };
+            FrameDecoder d = new FrameDecoder(in, 64, direct);
+            d.next(16);
+            try {
+                d.next(16);
+                Assert.fail("Should have failed");
+            } catch (IOException e) {
+                Assert.assertEquals("Unable to read byte 5 of 16", e.getMessage());
+            }
+            Assert.assertEquals(4, d.discard());
+            Assert.assertEquals(-1, d.readByte());
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class LineFormatterTest {
+
+    private static final byte[] OPCODES = {0x30, 'P', 'S', 'T', 'W', 'B', 'A', 'D', 'Q'};
+
+    @Test
+    public void numbersMatchPrintf() {
+        Random r = new Random(1);
+        TextBuffer t = new TextBuffer(4);
+        for (int i = 0; i < 100000; i++) {
+            long v = (i % 3 == 0) ? r.nextLong() : r.nextInt(20000) - 10000;
+            int w = r.nextInt(8);
+            Assert.assertEquals(String.format("%" + (w == 0 ? "" : w) + "d", v), t.reset().append(v, w).toString());
+            Assert.assertEquals(String.format("%-" + (w + 1) + "d", v), t.reset().append(v, -(w + 1)).toString());
+            Assert.assertEquals(String.format("%0" + (w + 1) + "d", v), t.reset().appendZeroPadded(v, w + 1).toString());
+            int s = r.nextInt(20000) - 10000;
+            Assert.assertEquals(String.format("%.2f", s / 100.0D), t.reset().appendFixed(s, 2).toString());
+        }
+        Assert.assertEquals(String.valueOf(Long.MIN_VALUE), t.reset().append(Long.MIN_VALUE).toString());
+    }
+
+    @Test
+    public void textMatchesPrintf() {
+        Random r = new Random(2);
+        byte[] raw = new byte[16];
+        ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        BaseReader.RecordViews views = new BaseReader.RecordViews();
+        for (int i = 0; i < 100000; i++) {
+            r.nextBytes(raw);
+            raw[15] = OPCODES[i % OPCODES.length];
+            Assert.assertEquals(legacy(buf), views.wrap(buf, 0).toString());
+        }
+    }
+
+    /**
+     * Record text as rendered with String.format before.
+     */
+    private static String legacy(ByteBuffer b) {
+        switch (b.get(15)) {
+            case 0x30:
+                String time = String.format("%4d/%02d/%02d %02d:%02d:%02d", 2000 + b.get(4), b.get(5), b.get(6), b.get(7), b.get(8), b.get(9));
+                String firmware = "" + (char) b.get(12) + "V" + (char) b.get(13) + (char) b.get(14);
+                return String.format("Log starts %s, Serial No: %5s, Firmware Rev. %5s", time, String.valueOf(b.getShort(10)), firmware);
+            case 'P':
+                return timed(b, "POWER RESET") + voltage(b);
+            case 'S':
+                return timed(b, "SOFT RESET") + voltage(b);
+            case 'T':
+                return timed(b, "TIME SET") + voltage(b);
+            case 'W':
+                return timed(b, "WATCHDOG RESET") + voltage(b);
+            case 'B':
+                return timed(b, "NEW BATTERY") + voltage(b);
+            case 'A':
+                return timed(b, "ALARM") +
+                        String.format("%d cps, %d nSv/h", b.getInt(6), b.getInt(10));
+            case 'D':
+                int dose = b.getInt(6);
+                int secs = b.getShort(10);
+                return timed(b, "DOSE") +
+                        String.format("%4d nSv, %4d sec, %5.0f nSv/h", dose, secs, dose * 3600.0D / secs);
+            default:
+                return String.format("Unknown operation code '%s': %s", (char) b.get(15), Arrays.toString(b.array()));
+        }
+    }
+
+    private static String timed(ByteBuffer b, String meta) {
+        return String.format("%4d/%02d/%02d %02d:%02d:%02d   %-15s ", 2000 + b.get(0), b.get(1), b.get(2), b.get(3), b.get(4), b.get(5), meta);
+    }
+
+    private static String voltage(ByteBuffer b) {
+        return String.format("bat=%.2fV, current=%dmA", b.getShort(6) / 100.0D, b.getShort(8));
+    }
+
+    @Test
+    public void datesMatch() {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Random r = new Random(3);
+        TextBuffer t = new TextBuffer();
+        long time = 1360000000000L;
+        for (int i = 0; i < 10000; i++) {
+            // mostly close steps to hit the caches, and some jumps
+            time += (i % 100 == 0) ? r.nextInt() * 1000L : r.nextInt(5000);
+            Assert.assertEquals(new Date(time).toString(), t.reset().appendDate(time).toString());
+            Assert.assertEquals(iso.format(new Date(time)), t.reset().appendIsoTime(time).toString());
+        }
+    }
+
+    @Test
+    public void csvAndJson() {
+        byte[] raw = {13, 2, 8, 23, 12, 57, 100, 0, 0, 0, 60, 0, 0, 0, 0, 'D'};
+        BaseReader.Record dose = BaseReader.parse(raw);
+
+        LineFormatter csv = new LineFormatter.Csv(new int[]{5, 60});
+        Assert.assertEquals("serial,time,type,voltage,current,dose,seconds,rate,max_gamma,max_dose,firmware,raw\n",
+                csv.recordHeader().toString());
+        Assert.assertEquals(",2013-02-08T23:12:57,DOSE,,,100,60,6000,,,,\n", csv.record(dose).toString());
+        csv.setSerial(1234);
+        Assert.assertEquals("1234,2013-02-08T23:12:57,DOSE,,,100,60,6000,,,,\n", csv.record(dose).toString());
+
+        LineFormatter json = new LineFormatter.Json(new int[]{5, 60});
+        json.setSerial(1234);
+        Assert.assertEquals("{\"serial\":1234,\"time\":\"2013-02-08T23:12:57\",\"type\":\"DOSE\",\"dose\":100,\"seconds\":60,\"rate\":6000}\n",
+                json.record(dose).toString());
+
+        LiveSample s = new LiveSample(2);
+        s.time = 1360365177123L;
+        s.duration = 1000;
+        s.gamma1 = 10;
+        s.gamma2 = 20;
+        s.gamma3 = 30;
+        s.neutron = 1;
+        s.cpm[0] = 3500;
+        s.cpm[1] = 3600;
+        s.gammaAlarm = true;
+
+        Assert.assertEquals("time,duration,gamma1,gamma2,gamma3,neutron,counts,cps,cpm,cpm_5s,cpm_60s,gamma_alarm,neutron_alarm\n",
+                csv.sampleHeader().toString());
+        Assert.assertEquals("2013-02-08T23:12:57.123Z,1000,10,20,30,1,60,60,3600,3500,3600,true,false\n",
+                csv.sample(s).toString());
+        Assert.assertEquals("{\"time\":\"2013-02-08T23:12:57.123Z\",\"duration\":1000,\"gamma1\":10,\"gamma2\":20,\"gamma3\":30," +
+                        "\"neutron\":1,\"counts\":60,\"cps\":60,\"cpm\":3600,\"cpm_5s\":3500,\"cpm_60s\":3600," +
+                        "\"gamma_alarm\":true,\"neutron_alarm\":false}\n",
+                json.sample(s).toString());
+    }
+
+}
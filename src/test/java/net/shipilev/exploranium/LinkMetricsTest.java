@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+public class LinkMetricsTest {
+
+    @Test
+    public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i * 1000L);
+        }
+        Assert.assertEquals(100, h.getCount());
+        Assert.assertEquals(50.5, h.getMeanMicros(), 0.01);
+        Assert.assertEquals(100.0, h.getMaxMicros(), 0.01);
+
+        // within a factor of two, never above max
+        double p50 = h.getP50Micros();
+        Assert.assertTrue("p50: " + p50, p50 >= 50 && p50 <= 100);
+        Assert.assertTrue(h.getP99Micros() <= h.getMaxMicros());
+
+        h.reset();
+        Assert.assertEquals(0, h.getCount());
+        Assert.assertEquals(0.0, h.getP50Micros(), 0.0);
+    }
+
+    @Test
+    public void publishedOverJmx() throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw, true);
+        Options opts = new Options(new String[] {"-p", "sim:baud=0"}, pw);
+        Assert.assertTrue(opts.parse());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName link = new ObjectName(LinkMetrics.DOMAIN + ":type=Link,port=" + ObjectName.quote("sim:baud=0"));
+        ObjectName settings = new ObjectName(LinkMetrics.DOMAIN + ":type=Latency,port=" + ObjectName.quote("sim:baud=0") + ",exchange=settings");
+
+        BaseReader reader = new BaseReader(opts, pw);
+        try {
+            reader.dumpSettings();
+
+            // battery handshake on connect, then the settings
+            Assert.assertEquals(2L, server.getAttribute(link, "BytesOut"));
+            Assert.assertEquals(3L + 32L, server.getAttribute(link, "BytesIn"));
+            Assert.assertEquals(0L, server.getAttribute(link, "HeaderMismatches"));
+            Assert.assertEquals(1L, server.getAttribute(settings, "Count"));
+        } finally {
+            reader.close();
+        }
+
+        Assert.assertFalse(server.isRegistered(link));
+    }
+
+    @Test
+    public void countsBulkReadTimeouts() throws IOException {
+        LinkMetrics m = new LinkMetrics("test");
+        // serial streams return 0 from bulk reads when the timeout expires
+        InputStream in = m.wrap(new ByteArrayInputStream(new byte[] {1, 2, 3}) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int r = super.read(b, off, len);
+                return (r == -1) ? 0 : r;
+            }
+        });
+        byte[] buf = new byte[8];
+        Assert.assertEquals(3, in.read(buf, 0, buf.length));
+        Assert.assertEquals(0, in.read(buf, 0, buf.length));
+        Assert.assertEquals(0, in.read(buf, 0, 0));
+        Assert.assertEquals(3L, m.getBytesIn());
+        Assert.assertEquals(1L, m.getTimeouts());
+    }
+
+}
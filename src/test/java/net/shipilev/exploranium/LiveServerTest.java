@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+public class LiveServerTest {
+
+    private static String get(int port, String path) throws IOException {
+        InputStream in = new URL("http://127.0.0.1:" + port + path).openStream();
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                bos.write(buf, 0, n);
+            }
+            return bos.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void servesSnapshots() throws IOException {
+        LiveServer server = new LiveServer(0);
+        try {
+            int[] windows = {5, 15, 60};
+            SampleListener a = server.publisher("/dev/ttyUSB0", windows);
+            server.publisher("sim", windows);
+
+            Assert.assertEquals("{\"devices\":[]}\n", get(server.getPort(), "/live.json"));
+
+            LiveSample s = new LiveSample(3);
+            s.time = 1360000000000L;
+            s.duration = 2000;
+            s.gamma1 = 30;
+            s.gamma2 = 8;
+            s.gamma3 = 2;
+            s.neutron = 1;
+            s.cpm[0] = 1200;
+            s.cpm[1] = 1150;
+            s.cpm[2] = 1100;
+            a.onSample(s);
+            s.gamma1 = 0;
+            a.onSample(s);
+
+            LiveSnapshot snap = server.get("/dev/ttyUSB0");
+            Assert.assertEquals(2, snap.getSequence());
+            Assert.assertEquals(5, snap.getCps());
+
+            String json = get(server.getPort(), "/live.json");
+            Assert.assertTrue(json, json.contains("\"port\":\"/dev/ttyUSB0\",\"seq\":2"));
+            Assert.assertTrue(json, json.contains("\"gamma\":[0,8,2]"));
+            Assert.assertTrue(json, json.contains("\"cpm60s\":1100"));
+
+            String prom = get(server.getPort(), "/metrics");
+            Assert.assertTrue(prom, prom.contains("# TYPE gr100_cpm gauge\n"));
+            Assert.assertTrue(prom, prom.contains("gr100_cpm{port=\"/dev/ttyUSB0\",window=\"15s\"} 1150\n"));
+            Assert.assertTrue(prom, prom.contains("gr100_gamma_counts{port=\"/dev/ttyUSB0\",channel=\"2\"} 8\n"));
+            Assert.assertTrue(prom, prom.contains("gr100_samples_total{port=\"/dev/ttyUSB0\"} 2\n"));
+        } finally {
+            server.stop();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+public class LogFramerTest {
+
+    private static byte[] log(int count) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] raw = new byte[16];
+        DeviceSimulator.putDate(raw, 4, 1357000000000L, TimeZone.getTimeZone("UTC"));
+        raw[15] = 0x31;
+        bos.write(raw, 0, 16);
+
+        for (int i = 0; i < count; i++) {
+            raw = new byte[16];
+            DeviceSimulator.putDate(raw, 0, 1357000000000L + i * 3600 * 1000L, TimeZone.getTimeZone("UTC"));
+            raw[6] = (byte) i;
+            raw[14] = (byte) 0xFF;
+            raw[15] = 'D';
+            bos.write(raw, 0, 16);
+        }
+
+        byte[] stop = new byte[16];
+        Arrays.fill(stop, (byte) 0xAA);
+        bos.write(stop, 0, 16);
+        return bos.toByteArray();
+    }
+
+    private static byte[] remove(byte[] b, int idx) {
+        byte[] r = new byte[b.length - 1];
+        System.arraycopy(b, 0, r, 0, idx);
+        System.arraycopy(b, idx + 1, r, idx, b.length - idx - 1);
+        return r;
+    }
+
+    private static byte[] insert(byte[] b, int idx, byte v) {
+        byte[] r = new byte[b.length + 1];
+        System.arraycopy(b, 0, r, 0, idx);
+        r[idx] = v;
+        System.arraycopy(b, idx, r, idx + 1, b.length - idx);
+        return r;
+    }
+
+    private static int records(LogFramer framer) throws IOException {
+        int n = 0;
+        while (framer.next() != null) {
+            n++;
+        }
+        return n;
+    }
+
+    private static LogFramer framer(byte[] data) {
+        return new LogFramer(new FrameDecoder(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void clean() throws IOException {
+        LogFramer f = framer(log(50));
+        Assert.assertEquals(51, records(f));
+        Assert.assertEquals(0, f.getResyncs());
+    }
+
+    @Test
+    public void lostByte() throws IOException {
+        // the damaged record is lost, the rest is aligned again
+        LogFramer f = framer(remove(log(50), 16 * 10 + 7));
+        Assert.assertEquals(50, records(f));
+        Assert.assertEquals(1, f.getResyncs());
+        Assert.assertEquals(15, f.getSkipped());
+    }
+
+    @Test
+    public void spuriousByte() throws IOException {
+        LogFramer f = framer(insert(log(50), 16 * 20, (byte) 0x55));
+        Assert.assertEquals(51, records(f));
+        Assert.assertEquals(1, f.getResyncs());
+        Assert.assertEquals(1, f.getSkipped());
+    }
+
+    @Test
+    public void truncatedStop() throws IOException {
+        byte[] data = log(50);
+        LogFramer f = framer(remove(data, data.length - 3));
+        Assert.assertEquals(51, records(f));
+        Assert.assertEquals(0, f.getResyncs());
+    }
+
+    @Test
+    public void unknownRecord() throws IOException {
+        // aligned, just not known: passed through
+        byte[] data = log(50);
+        data[16 * 5 + 15] = 'Q';
+        LogFramer f = framer(data);
+        Assert.assertEquals(51, records(f));
+        Assert.assertEquals(0, f.getResyncs());
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class RateMeterTest {
+
+    @Test
+    public void partial() {
+        RateMeter meter = new RateMeter(2, 5);
+        meter.add(10, 1000);
+
+        Assert.assertEquals(10, meter.counts(0));
+        Assert.assertEquals(10, meter.counts(1));
+        Assert.assertEquals(600, meter.rate(0, 60000));
+    }
+
+    @Test
+    public void sliding() {
+        RateMeter meter = new RateMeter(2, 5);
+        for (int i = 1; i <= 9; i++) {
+            meter.add(i, 100 * i);
+        }
+
+        Assert.assertEquals(8 + 9, meter.counts(0));
+        Assert.assertEquals(800 + 900, meter.duration(0));
+        Assert.assertEquals(5 + 6 + 7 + 8 + 9, meter.counts(1));
+        Assert.assertEquals(500 + 600 + 700 + 800 + 900, meter.duration(1));
+    }
+
+    @Test
+    public void matchesRecompute() {
+        int[] windows = {5, 15, 60};
+        RateMeter meter = new RateMeter(windows);
+        long[] history = new long[1000];
+        for (int s = 0; s < history.length; s++) {
+            history[s] = (s * 31) % 97;
+            meter.add(history[s], 1800);
+            for (int w = 0; w < windows.length; w++) {
+                long expected = 0;
+                for (int i = Math.max(0, s - windows[w] + 1); i <= s; i++) {
+                    expected += history[i];
+                }
+                Assert.assertEquals(expected, meter.counts(w));
+            }
+        }
+    }
+
+    @Test
+    public void empty() {
+        Assert.assertEquals(0, new RateMeter(5).rate(0, 60000));
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class RecordArchiveTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("archive", "");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] dose(int hour, int dose) {
+        return new byte[]{13, 2, 7, (byte) hour, 0, 0, (byte) dose, 0, 0, 0, 0x10, 0x0E, (byte) 0x81, 0, (byte) 0xFF, 'D'};
+    }
+
+    private static RecordBuffer records(byte[]... raws) {
+        RecordBuffer r = new RecordBuffer();
+        r.add(new byte[]{0x50, 0, 0x10, 0, 13, 2, 7, 21, 42, 38, 0x32, 0x0E, '1', '8', '0', 0x31}, 0);
+        for (byte[] raw : raws) {
+            r.add(raw, 0);
+        }
+        return r;
+    }
+
+    @Test
+    public void dedup() throws IOException {
+        RecordArchive archive = new RecordArchive(dir);
+        Assert.assertEquals(2, archive.ingest(3634, records(dose(1, 10), dose(2, 20))));
+        Assert.assertEquals(1, archive.ingest(3634, records(dose(1, 10), dose(2, 20), dose(3, 30))));
+        Assert.assertEquals(3, archive.count(3634));
+
+        // index is rebuilt from file by the fresh instance
+        RecordArchive reopened = new RecordArchive(dir);
+        Assert.assertEquals(0, reopened.ingest(3634, records(dose(2, 20), dose(3, 30))));
+        Assert.assertEquals(Arrays.asList(3634), reopened.serials());
+
+        final RecordBuffer loaded = new RecordBuffer();
+        reopened.scan(3634, new RecordArchive.RawVisitor() {
+            @Override
+            public void visit(byte[] raw) {
+                loaded.add(raw, 0);
+            }
+        });
+        Assert.assertEquals(3, loaded.size());
+        BaseReader.Record r = loaded.get(2, new BaseReader.RecordViews());
+        Assert.assertTrue(r instanceof BaseReader.DoseRecord);
+        Assert.assertEquals(30, ((BaseReader.DoseRecord) r).getDose());
+    }
+
+    @Test
+    public void tornTail() throws IOException {
+        RecordArchive archive = new RecordArchive(dir);
+        archive.ingest(1, records(dose(1, 10)));
+
+        RandomAccessFile raf = new RandomAccessFile(archive.fileFor(1), "rw");
+        raf.seek(raf.length());
+        raf.write(new byte[5]);
+        raf.close();
+
+        RecordArchive reopened = new RecordArchive(dir);
+        Assert.assertEquals(1, reopened.ingest(1, records(dose(1, 10), dose(2, 20))));
+        Assert.assertEquals(2 * RecordArchive.RECORD_SIZE, reopened.fileFor(1).length());
+    }
+
+}
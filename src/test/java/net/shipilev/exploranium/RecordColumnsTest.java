@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.TimeZone;
+
+public class RecordColumnsTest {
+
+    private static final long START = 1357000000L;
+
+    private static byte[] record(char op, long epochSecond, int a, int b) {
+        byte[] raw = new byte[RecordBuffer.RECORD_SIZE];
+        DeviceSimulator.putDate(raw, 0, epochSecond * 1000, TimeZone.getTimeZone("UTC"));
+        ByteBuffer bb = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        if (op == 'D') {
+            bb.putInt(6, a);
+            bb.putShort(10, (short) b);
+        } else if (op == 'A') {
+            bb.putInt(6, a);
+            bb.putInt(10, b);
+        } else {
+            bb.putShort(6, (short) a);
+            bb.putShort(8, (short) b);
+        }
+        raw[15] = (byte) op;
+        return raw;
+    }
+
+    private static RecordColumns columns() {
+        RecordBuffer buf = new RecordBuffer(4);
+        for (int i = 0; i < 100; i++) {
+            buf.add(record('D', START + i * 3600, i, 3600), 0);
+        }
+        buf.add(record('A', START + 10 * 3600, 250, 3000), 0);
+        buf.add(record('A', START + 50 * 3600, 120, 4000), 0);
+        buf.add(record('P', START, 130, 5), 0);
+        buf.add(record('B', START + 99 * 3600, 118, 7), 0);
+
+        RecordColumns cols = new RecordColumns(2);
+        cols.addAll(buf);
+        return cols;
+    }
+
+    @Test
+    public void decode() {
+        RecordColumns cols = columns();
+        Assert.assertEquals(104, cols.size());
+        Assert.assertEquals('D', cols.opcode()[5]);
+        Assert.assertEquals(START + 5 * 3600, cols.epochSecond()[5]);
+        Assert.assertEquals(5, cols.dose()[5]);
+        Assert.assertEquals(3600, cols.seconds()[5]);
+        Assert.assertEquals(4000, cols.maxDose()[101]);
+        Assert.assertEquals(118, cols.voltage()[103]);
+        Assert.assertEquals(7, cols.current()[103]);
+    }
+
+    @Test
+    public void aggregate() {
+        RecordColumns cols = columns();
+
+        RecordColumns.Selection dose = cols.select((byte) 'D', START, START + 9 * 3600);
+        Assert.assertEquals(10, dose.count());
+        Assert.assertEquals(45, dose.sum(cols.dose()));
+        Assert.assertEquals(36000, dose.sum(cols.seconds()));
+        Assert.assertEquals(9, dose.max(cols.dose()));
+
+        Assert.assertEquals(4, dose.where(cols.dose(), 6, 100).count());
+
+        RecordColumns.Selection alarms = cols.select((byte) 'A', Long.MIN_VALUE + 1, Long.MAX_VALUE);
+        Assert.assertEquals(2, alarms.count());
+        Assert.assertEquals(250, alarms.max(cols.maxGamma()));
+
+        RecordColumns.Selection diag = cols.select((byte) 0, Long.MIN_VALUE + 1, Long.MAX_VALUE)
+                .where(cols.voltage(), 1, Short.MAX_VALUE);
+        Assert.assertEquals(2, diag.count());
+        Assert.assertEquals(118, diag.min(cols.voltage()));
+    }
+
+    @Test
+    public void histogram() {
+        RecordColumns cols = columns();
+        long[] buckets = new long[4];
+        cols.select((byte) 'D', Long.MIN_VALUE + 1, Long.MAX_VALUE)
+                .histogram(cols.epochSecond(), cols.dose(), START, 25 * 3600, buckets);
+
+        Assert.assertEquals(300, buckets[0]);
+        Assert.assertEquals(925, buckets[1]);
+        Assert.assertEquals(1550, buckets[2]);
+        Assert.assertEquals(2175, buckets[3]);
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class RecordStoreTest {
+
+    private File file;
+    private long[] times;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("store", RecordArchive.SUFFIX);
+        times = new long[0];
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void append(int count, Random r) throws IOException {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        long[] nt = new long[times.length + count];
+        System.arraycopy(times, 0, nt, 0, times.length);
+
+        long t = (times.length == 0) ? 1357000000000L : nt[times.length - 1] * 1000;
+        FileOutputStream fos = new FileOutputStream(file, true);
+        try {
+            byte[] raw = new byte[16];
+            for (int i = times.length; i < nt.length; i++) {
+                long stamp;
+                if (r.nextInt(100) == 0) {
+                    // RTC reset, log jumps back to 2001
+                    stamp = 978307200000L + r.nextInt(1000) * 1000L;
+                    raw[15] = 'T';
+                } else {
+                    t += 1000L * r.nextInt(7200);
+                    stamp = t;
+                    raw[15] = 'D';
+                }
+                DeviceSimulator.putDate(raw, 0, stamp, utc);
+                nt[i] = stamp / 1000;
+                fos.write(raw);
+            }
+        } finally {
+            fos.close();
+        }
+        times = nt;
+    }
+
+    private void check(RecordStore store, long from, long to, byte opcode) {
+        final int[] got = new int[1];
+        store.query(from, to, opcode, new RecordStore.Visitor() {
+            @Override
+            public void visit(ByteBuffer buf, int offset) {
+                got[0]++;
+            }
+        });
+
+        int expected = 0;
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] >= from && times[i] <= to && (opcode == 0 || store.opcode(i) == opcode)) {
+                expected++;
+            }
+        }
+        Assert.assertEquals("[" + from + ", " + to + "]", expected, got[0]);
+    }
+
+    @Test
+    public void ranges() throws IOException {
+        Random r = new Random(1);
+        append(5000, r);
+        RecordStore store = new RecordStore(file);
+        Assert.assertEquals(5000, store.count());
+
+        for (int q = 0; q < 200; q++) {
+            long a = times[r.nextInt(times.length)];
+            long b = times[r.nextInt(times.length)];
+            check(store, Math.min(a, b), Math.max(a, b), (q % 2 == 0) ? 0 : (byte) 'T');
+        }
+        check(store, Long.MIN_VALUE, Long.MAX_VALUE, (byte) 0);
+        check(store, 0, 1, (byte) 0);
+
+        append(300, r);
+        store.refresh();
+        Assert.assertEquals(5300, store.count());
+        for (int q = 0; q < 100; q++) {
+            long a = times[r.nextInt(times.length)];
+            long b = times[r.nextInt(times.length)];
+            check(store, Math.min(a, b), Math.max(a, b), (byte) 0);
+        }
+    }
+
+    private void appendLog(byte opcode, long from, int count, long step) throws IOException {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        long[] nt = new long[times.length + count];
+        System.arraycopy(times, 0, nt, 0, times.length);
+        FileOutputStream fos = new FileOutputStream(file, true);
+        try {
+            byte[] raw = new byte[16];
+            raw[15] = opcode;
+            for (int i = 0; i < count; i++) {
+                long stamp = from + i * step;
+                DeviceSimulator.putDate(raw, 0, stamp, utc);
+                nt[times.length + i] = stamp / 1000;
+                fos.write(raw);
+            }
+        } finally {
+            fos.close();
+        }
+        times = nt;
+    }
+
+    @Test
+    public void interleavedLogs() throws IOException {
+        // first download brings the whole history, diagnostic log then dose log,
+        // the next one only the new records
+        long start = 1357000000000L;
+        long hour = 3600 * 1000L;
+        appendLog((byte) 'T', start, 5000, hour);
+        appendLog((byte) 'D', start, 5000, hour);
+        appendLog((byte) 'T', start + 5000 * hour, 100, hour);
+        appendLog((byte) 'D', start + 5000 * hour, 100, hour);
+        RecordStore store = new RecordStore(file);
+
+        long from = (start + 2000 * hour) / 1000;
+        long to = (start + 2010 * hour) / 1000;
+        check(store, from, to, (byte) 0);
+        Assert.assertTrue("Blocks: " + store.lastBlocks, store.lastBlocks <= 4);
+        check(store, from, to, (byte) 'D');
+        Assert.assertTrue("Blocks: " + store.lastBlocks, store.lastBlocks <= 2);
+
+        Random r = new Random(2);
+        for (int q = 0; q < 100; q++) {
+            long a = times[r.nextInt(times.length)];
+            long b = times[r.nextInt(times.length)];
+            check(store, Math.min(a, b), Math.max(a, b), (q % 2 == 0) ? 0 : (byte) 'T');
+        }
+    }
+
+    @Test
+    public void deviceTime() {
+        Calendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(2013, Calendar.FEBRUARY, 7, 21, 42, 38);
+        Assert.assertEquals(cal.getTimeInMillis() / 1000, DeviceTime.epochSecond(2013, 2, 7, 21, 42, 38));
+        cal.set(2000, Calendar.FEBRUARY, 29, 0, 0, 0);
+        Assert.assertEquals(cal.getTimeInMillis() / 1000, DeviceTime.epochSecond(2000, 2, 29, 0, 0, 0));
+    }
+
+}
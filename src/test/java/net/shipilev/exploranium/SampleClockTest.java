@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SampleClockTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long S = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void integrationSkipsOutliers() {
+        SampleClock c = new SampleClock(0, 0);
+        long t = 0;
+        for (int i = 0; i < 50; i++) {
+            c.exchange(t, t + 10 * MS, t + 1010 * MS);
+            t += 2 * S;
+        }
+        Assert.assertEquals(1000 * MS, c.integrationNanos(), MS);
+
+        // a stalled read must not drag the estimate
+        long est = c.exchange(t, t + 10 * MS, t + 3010 * MS);
+        Assert.assertEquals(1000 * MS, est, MS);
+        Assert.assertEquals(1, c.getOutliers());
+        Assert.assertEquals(51, c.getExchanges());
+    }
+
+    @Test
+    public void integrationReseeds() {
+        SampleClock c = new SampleClock(0, 0);
+        long t = 0;
+
+        // bad first exchange
+        c.exchange(t, t + 10 * MS, t + 3010 * MS);
+        for (int i = 0; i < 50; i++) {
+            t += 2 * S;
+            c.exchange(t, t + 10 * MS, t + 1010 * MS);
+        }
+        Assert.assertEquals(1000 * MS, c.integrationNanos(), MS);
+
+        // device switched to 2 s integration
+        for (int i = 0; i < 50; i++) {
+            t += 3 * S;
+            c.exchange(t, t + 10 * MS, t + 2010 * MS);
+        }
+        Assert.assertEquals(2000 * MS, c.integrationNanos(), MS);
+    }
+
+    @Test
+    public void slewsMonotonically() {
+        SampleClock c = new SampleClock(0, 1000000);
+
+        // system clock jumped back 2 s: correct slowly, never go backwards
+        long last = c.wallMillis(0);
+        for (int i = 1; i <= 300; i++) {
+            long n = i * S;
+            c.sync(n, 1000000 + i * 1000L - 2000);
+            long w = c.wallMillis(n);
+            Assert.assertTrue(w > last);
+            last = w;
+        }
+        Assert.assertEquals(1000000 + 300 * 1000L - 2000, last, 1);
+    }
+
+    @Test
+    public void rebasesOnForwardStep() {
+        SampleClock c = new SampleClock(0, 1000000);
+        c.sync(S, 1000000 + 1000 + 60000);
+        Assert.assertEquals(1000000 + 1000 + 60000, c.wallMillis(S));
+    }
+
+    @Test
+    public void monotonicOverBackwardStep() {
+        SampleClock c = new SampleClock(0, 1000000);
+
+        // system clock stepped an hour back
+        long last = c.wallMillis(0);
+        for (int i = 1; i <= 1000; i++) {
+            long n = i * S;
+            c.sync(n, 1000000 + i * 1000L - 3600 * 1000);
+            long w = c.wallMillis(n);
+            Assert.assertTrue(w > last);
+            last = w;
+        }
+        // slewed in by 1% of the elapsed time
+        Assert.assertEquals(1000000 + 1000 * 1000L - 10 * 1000, last, 1);
+    }
+
+    @Test
+    public void rtcOffsetAndDrift() {
+        SampleClock c = new SampleClock(0, 1000000000L * 1000);
+        c.rtc(0, 1000000000L + 30);
+        Assert.assertEquals(30.5, c.rtcOffset(), 1e-9);
+        Assert.assertEquals(0, c.rtcDriftPpm(), 1e-9);
+
+        // gained one second over a day
+        long day = TimeUnit.DAYS.toNanos(1);
+        c.rtc(day, 1000000000L + 86400 + 31);
+        Assert.assertEquals(31.5, c.rtcOffset(), 1e-9);
+        Assert.assertEquals(1e6 / 86400, c.rtcDriftPpm(), 1e-6);
+        Assert.assertEquals(1000000000L + 2 * 86400 + 32.5, c.deviceSecond(2 * day), 1e-6);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SampleQueueTest {
+
+    @Test
+    public void order() {
+        SampleQueue q = new SampleQueue(4, 1);
+        LiveSample s = new LiveSample(1);
+        for (int i = 0; i < 3; i++) {
+            s.time = i;
+            s.cpm[0] = i * 10;
+            Assert.assertTrue(q.offer(s));
+        }
+
+        LiveSample d = new LiveSample(1);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(q.poll(d, 0));
+            Assert.assertEquals(i, d.time);
+            Assert.assertEquals(i * 10, d.cpm[0]);
+        }
+        Assert.assertFalse(q.poll(d, 1000));
+        Assert.assertTrue(q.isEmpty());
+    }
+
+    @Test
+    public void dropsWhenFull() {
+        SampleQueue q = new SampleQueue(4, 1);
+        LiveSample s = new LiveSample(1);
+        for (int i = 0; i < 6; i++) {
+            s.time = i;
+            q.offer(s);
+        }
+        Assert.assertEquals(2, q.dropped());
+
+        LiveSample d = new LiveSample(1);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(q.poll(d, 0));
+            Assert.assertEquals(i, d.time);
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class SimulatedTransportTest {
+
+    private String run(String port, String... args) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw, true);
+        String[] fullArgs = new String[args.length + 2];
+        fullArgs[0] = "-p";
+        fullArgs[1] = port;
+        System.arraycopy(args, 0, fullArgs, 2, args.length);
+
+        Options opts = new Options(fullArgs, pw);
+        Assert.assertTrue(opts.parse());
+
+        BaseReader reader = new BaseReader(opts, pw);
+        try {
+            if (opts.shouldDumpSettings()) {
+                reader.dumpSettings();
+            }
+            if (opts.shouldStream()) {
+                Main.execute(reader, opts);
+                return sw.toString();
+            }
+            if (opts.shouldDumpAlarms()) {
+                reader.dumpAlarms();
+            }
+            if (opts.shouldDumpDose()) {
+                reader.dumpDose();
+            }
+        } finally {
+            reader.close();
+        }
+        return sw.toString();
+    }
+
+    private static int count(String s, String sub) {
+        int c = 0;
+        int idx = 0;
+        while ((idx = s.indexOf(sub, idx)) != -1) {
+            c++;
+            idx += sub.length();
+        }
+        return c;
+    }
+
+    @Test
+    public void settings() throws Exception {
+        String out = run("sim:baud=0", "-u");
+        Assert.assertTrue(out, out.contains("Firmware Rev.: 1V80"));
+        Assert.assertTrue(out, out.contains("Battery voltage: 1.4V"));
+    }
+
+    @Test
+    public void doseLog() throws Exception {
+        String out = run("sim:baud=0,dose=100", "-d");
+        Assert.assertEquals(out, 100, count(out, " DOSE "));
+        Assert.assertEquals(out, 2, count(out, "Serial No:  3634"));
+    }
+
+    @Test
+    public void streamedDoseLog() throws Exception {
+        String out = run("sim:baud=0,dose=100", "-S", "-d");
+        Assert.assertEquals(out, 100, count(out, " DOSE "));
+        Assert.assertEquals(out, 2, count(out, "Serial No:  3634"));
+        Assert.assertFalse(out, out.contains(" ALARM "));
+    }
+
+    @Test
+    public void captureReplay() throws Exception {
+        File capture = File.createTempFile("capture", ".bin");
+        try {
+            String live = run("sim:baud=0,dose=100", "-u", "-d", "-c", capture.getPath());
+            String replayed = run(ReplayTransport.FAST_PREFIX + ":" + capture.getPath(), "-u", "-d");
+            Assert.assertEquals(live.replaceAll("Connected .*\n", ""), replayed.replaceAll("Connected .*\n", ""));
+            Assert.assertEquals(live, 100, count(live, " DOSE "));
+        } finally {
+            capture.delete();
+        }
+    }
+
+    @Test
+    public void pacing() throws Exception {
+        // 10 records at 2400 baud is ~200 ms on the wire for each log
+        long start = System.nanoTime();
+        run("sim:baud=2400,diag=10,dose=10", "-a");
+        long elapsed = System.nanoTime() - start;
+        Assert.assertTrue("Too fast: " + elapsed, elapsed > 2 * 12 * 16 * 4000000L);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SpectrumAnalyzerTest {
+
+    private static int[] sweep(double peak) {
+        int[] s = new int[41];
+        for (int ch = 0; ch < 41; ch++) {
+            double bg = 400 * Math.exp(-ch / 6.0) + 5;
+            double d = (ch - peak) / 1.2;
+            s[ch] = (int) Math.round(bg + 300 * Math.exp(-d * d / 2));
+        }
+        return s;
+    }
+
+    private static int[] narrow(double... peaks) {
+        int[] s = new int[41];
+        for (int ch = 0; ch < 41; ch++) {
+            double v = 400 * Math.exp(-ch / 6.0) + 5;
+            for (double peak : peaks) {
+                double d = (ch - peak) / 0.5;
+                v += 300 * Math.exp(-d * d / 2);
+            }
+            s[ch] = (int) Math.round(v);
+        }
+        return s;
+    }
+
+    @Test
+    public void tracksShiftingPeak() {
+        SpectrumAnalyzer a = new SpectrumAnalyzer(41, 3, 0, 0, 662);
+        for (int i = 0; i < 10; i++) {
+            a.add(sweep(20.0));
+        }
+        Assert.assertEquals(1, a.peakCount());
+        SpectrumAnalyzer.Peak p = a.peak(0);
+        Assert.assertEquals(20.0, p.getPosition(), 0.2);
+        Assert.assertEquals(0.0, p.getShift(), 0.2);
+        Assert.assertEquals(662.0, a.energy(p.getPosition()), 10.0);
+        int id = p.getId();
+
+        for (int i = 0; i < 20; i++) {
+            a.add(sweep(20.0 + 0.05 * i));
+        }
+        Assert.assertEquals(1, a.peakCount());
+        p = a.peak(0);
+        Assert.assertEquals(id, p.getId());
+        Assert.assertTrue("Shift: " + p.getShift(), p.getShift() > 0.5);
+        // continuum is ~94 weighted counts under the peak, peak top is ~1500
+        Assert.assertTrue("Background: " + a.background(20), a.background(20) < 120);
+    }
+
+    @Test
+    public void noPeaksInSmoothSpectrum() {
+        SpectrumAnalyzer a = new SpectrumAnalyzer(41, 10, 0, 0, Double.NaN);
+        int[] s = new int[41];
+        for (int ch = 0; ch < 41; ch++) {
+            s[ch] = (int) (400 * Math.exp(-ch / 6.0) + 5);
+        }
+        for (int i = 0; i < 5; i++) {
+            a.add(s);
+        }
+        Assert.assertEquals(0, a.peakCount());
+        Assert.assertFalse(a.isCalibrated());
+    }
+
+    @Test
+    public void splitPeakGetsNewId() {
+        SpectrumAnalyzer a = new SpectrumAnalyzer(41, 0.1, 0, 0, Double.NaN);
+        for (int i = 0; i < 10; i++) {
+            a.add(narrow(20.0));
+        }
+        Assert.assertEquals(1, a.peakCount());
+        int id = a.peak(0).getId();
+
+        // both halves are within MATCH_DISTANCE of the old peak
+        a.add(narrow(18.7, 21.4));
+        Assert.assertEquals(2, a.peakCount());
+        Assert.assertEquals(id, a.peak(0).getId());
+        Assert.assertTrue(a.peak(1).getId() != id);
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SpectrumIndexTest {
+
+    @Test
+    public void windows() {
+        SpectrumIndex index = new SpectrumIndex(3);
+        for (int s = 0; s < 100; s++) {
+            // sweep s runs over [s*10, s*10+9], channel ch counts ch+s
+            index.add(s * 10, s * 10 + 9, new int[] {s, s + 1, s + 2});
+        }
+
+        long[] dst = new long[3];
+
+        index.sum(0, 100, dst);
+        Assert.assertEquals(4950L, dst[0]);
+        Assert.assertEquals(5150L, dst[2]);
+
+        // sweeps 10..19 are fully inside
+        Assert.assertEquals(10, index.window(100, 199, dst));
+        Assert.assertEquals(145L, dst[0]);
+
+        // partial sweeps at the edges are excluded
+        Assert.assertEquals(8, index.window(101, 198, dst));
+        Assert.assertEquals(11L + 12 + 13 + 14 + 15 + 16 + 17 + 18, dst[0]);
+
+        Assert.assertEquals(0, index.window(101, 105, dst));
+        Assert.assertEquals(0L, dst[1]);
+
+        Assert.assertEquals(5, index.last(50, 1000, dst));
+        Assert.assertEquals(95L + 96 + 97 + 98 + 99, dst[0]);
+    }
+
+}
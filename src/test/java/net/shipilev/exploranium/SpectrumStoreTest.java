@@ -0,0 +1,76 @@
+/*
+ * #%L
+ * Exploranium GR-100 Control
+ * %%
+ * Copyright (C) 2013 Aleksey Shipilev, and other contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package net.shipilev.exploranium;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class SpectrumStoreTest {
+
+    @Test
+    public void reopenAndAppend() throws IOException {
+        File f = File.createTempFile("spectrum", ".bin");
+        f.delete();
+        f.deleteOnExit();
+
+        int[] c1 = new int[41];
+        int[] c2 = new int[41];
+
+        SpectrumStore store = new SpectrumStore(f, 41);
+        for (int s = 0; s < SpectrumStore.CHUNK + 10; s++) {
+            for (int ch = 0; ch < 41; ch++) {
+                c1[ch] = ch;
+                c2[ch] = 65535 - s;
+            }
+            store.append(s * 1000L, s * 1000L + 500, 5, c1, c2);
+        }
+        store.close();
+
+        store = new SpectrumStore(f, 41);
+        Assert.assertEquals(SpectrumStore.CHUNK + 10, store.count());
+        store.append(-1, -1, 7, c1, c2);
+        store.close();
+
+        store = new SpectrumStore(f, 41);
+        Assert.assertEquals(SpectrumStore.CHUNK + 11, store.count());
+        Assert.assertEquals(3000L, store.start(3));
+        Assert.assertEquals(3500L, store.end(3));
+        Assert.assertEquals(5, store.secsPerChannel(3));
+        Assert.assertEquals(7, store.secsPerChannel(SpectrumStore.CHUNK + 10));
+        Assert.assertEquals(65535 - 3, store.counts2(3, 0));
+        Assert.assertEquals(40, store.counts(3, 40));
+
+        long[] acc = new long[41];
+        store.index().sum(0, store.count(), acc);
+        Assert.assertEquals(40L * store.count(), acc[40]);
+        store.close();
+
+        try {
+            new SpectrumStore(f, 42);
+            Assert.fail("Channel count mismatch should be detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}